@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+
+import de.m6c7l.sniffer.app.Device;
+import de.m6c7l.sniffer.app.LineWriter;
+import de.m6c7l.sniffer.app.Metrics;
+import de.m6c7l.sniffer.app.Simulator;
+
+// end-to-end load of the capture path by a simulated device: rate is doubled until frames get lost,
+// then bisected, every step is reported as one json line, the last line tells the maximum sustained rate
+//
+// usage: CaptureLoad [DE|RZ] [seconds per step] [min size] [max size] [share of fcs errors] [burst]
+public class CaptureLoad {
+
+    private final String type;
+    private final long duration; // [ms] per step
+    private final int min;
+    private final int max;
+    private final double errors;
+    private final int burst;
+
+    // outcome of a step
+    private static class Step {
+
+        double rate;
+        double achieved; // [1/s] frames emitted by the device
+        long emitted;
+        long captured;
+        long lost;
+        long p50;
+        long p99;
+        long max;
+
+        boolean sustained() {
+            return this.lost == 0 && this.achieved >= this.rate * 0.95;
+        }
+
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "{\"rate\":%.0f,\"achieved\":%.0f,\"emitted\":%d,\"captured\":%d,\"lost\":%d," +
+                    "\"latency\":{\"p50\":%d,\"p99\":%d,\"max\":%d},\"sustained\":%s}",
+                    this.rate, this.achieved, this.emitted, this.captured, this.lost,
+                    this.p50, this.p99, this.max, this.sustained());
+        }
+
+    }
+
+    public CaptureLoad(String type, long duration, int min, int max, double errors, int burst) {
+        this.type = type;
+        this.duration = duration;
+        this.min = min;
+        this.max = max;
+        this.errors = errors;
+        this.burst = burst;
+    }
+
+    // capture at given rate for one step, text output written to nowhere
+    public Step step(double rate) throws IOException, InterruptedException {
+        Simulator sim = new Simulator(this.type);
+        sim.rate(rate);
+        sim.sizes(this.min, this.max);
+        sim.errors(this.errors);
+        sim.burst(this.burst);
+        Metrics metrics = new Metrics();
+        Device device = new Device();
+        device.metrics(metrics);
+        device.addSink(new LineWriter(new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                int n = src.remaining();
+                src.position(src.limit());
+                return n;
+            }
+            public boolean isOpen() {
+                return true;
+            }
+            public void close() {}
+        }, 64, 0));
+        device.connect(sim);
+        if (!device.reset() || !device.status() || !device.channel(26) || !device.enable(true)) {
+            device.disconnect();
+            throw new IOException("simulator not responding");
+        }
+        long t0 = System.nanoTime();
+        long e0 = sim.emitted();
+        Thread.sleep(this.duration);
+        device.enable(false);
+        long t1 = System.nanoTime();
+        // let frames in flight arrive
+        Thread.sleep(200);
+        Step s = new Step();
+        s.rate = rate;
+        s.emitted = sim.emitted();
+        s.achieved = (s.emitted - e0) * 1e9 / (t1 - t0);
+        s.captured = metrics.getFramesCaptured();
+        s.lost = sim.overflow() + metrics.getFramesDropped() + metrics.getChecksumFailures() +
+                 Math.max(0, s.emitted - s.captured);
+        s.p50 = metrics.getLatencyMedian();
+        s.p99 = metrics.getLatency99();
+        s.max = metrics.getLatencyMax();
+        device.disconnect();
+        return s;
+    }
+
+    // highest rate sustained without loss, -1 if not even the first one
+    public double run(double rate) throws IOException, InterruptedException {
+        double good = -1;
+        double bad = -1;
+        while (bad < 0) {
+            Step s = this.step(rate);
+            System.out.println(s);
+            if (!s.sustained()) {
+                bad = rate;
+            } else {
+                good = rate;
+                rate *= 2;
+            }
+        }
+        if (good < 0) return -1;
+        for (int i = 0; i < 4; i++) {
+            rate = (good + bad) / 2;
+            Step s = this.step(rate);
+            System.out.println(s);
+            if (s.sustained()) {
+                good = rate;
+            } else {
+                bad = rate;
+            }
+        }
+        return good;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        CaptureLoad load = new CaptureLoad(
+                args.length > 0 ? args[0] : "RZ",
+                args.length > 1 ? Long.parseLong(args[1]) * 1000 : 3000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 5,
+                args.length > 3 ? Integer.parseInt(args[3]) : 127,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0,
+                args.length > 5 ? Integer.parseInt(args[5]) : 1);
+        double max = load.run(1000);
+        System.out.println(String.format(Locale.ROOT, "{\"sustained\":%.0f}", max));
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.m6c7l.sniffer.app.Device;
+import de.m6c7l.sniffer.app.LineWriter;
+
+// processing of captured frames including text output, written to nowhere
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceBenchmark {
+
+    @Param({"5", "20", "64", "127"})
+    public int size;
+
+    @Param({"DE", "RZ"})
+    public String type;
+
+    // lines per flush
+    @Param({"1", "64"})
+    public int lines;
+
+    private byte[] capture;
+    private Device device;
+
+    @Setup
+    public void setup() {
+        this.capture = Frames.capture(new Random(size), type, size, 123456L, 26);
+        this.device = new Device();
+        this.device.receive(Device.REPLY_AQUIRE_STATUS, Frames.status(type));
+        this.device.addSink(new LineWriter(new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                int n = src.remaining();
+                src.position(src.limit());
+                return n;
+            }
+            public boolean isOpen() {
+                return true;
+            }
+            public void close() {}
+        }, lines, 0));
+    }
+
+    @Benchmark
+    public void receive() {
+        this.device.receive(Device.DATA_CAPTURED, this.capture);
+    }
+
+}
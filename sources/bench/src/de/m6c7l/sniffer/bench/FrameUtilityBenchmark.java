@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.m6c7l.sniffer.app.Device;
+import de.m6c7l.sniffer.app.FrameUtility;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameUtilityBenchmark {
+
+    @Param({"5", "20", "64", "127"})
+    public int size;
+
+    @Param({"DE", "RZ"})
+    public String type;
+
+    private byte[] capture; // data frame content
+    private byte[] serial;  // serial frame of data frame content
+    private byte[] psdu;    // ieee 802.15.4 frame without fcs
+    private String text;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(size);
+        this.capture = Frames.capture(rnd, type, size, 123456L, 26);
+        ByteBuffer buf = FrameUtility.prepare(Device.DATA_CAPTURED, this.capture);
+        this.serial = new byte[buf.limit()];
+        buf.get(this.serial);
+        this.psdu = new byte[size - 2];
+        System.arraycopy(this.capture, 8, this.psdu, 0, this.psdu.length);
+        this.text = FrameUtility.hex(this.psdu);
+    }
+
+    @Benchmark
+    public byte checksum() {
+        return FrameUtility.checksum(this.serial);
+    }
+
+    @Benchmark
+    public int crc() {
+        return FrameUtility.crc(this.psdu);
+    }
+
+    @Benchmark
+    public int crcSlice() {
+        return FrameUtility.crc(this.capture, 8, this.size - 2);
+    }
+
+    @Benchmark
+    public byte[] fcs() {
+        return FrameUtility.fcs(this.psdu);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return FrameUtility.verify(this.capture, 8, this.size);
+    }
+
+    @Benchmark
+    public String hex() {
+        return FrameUtility.hex(this.psdu);
+    }
+
+    @Benchmark
+    public byte[] arr() {
+        return FrameUtility.arr(this.text);
+    }
+
+    @Benchmark
+    public ByteBuffer prepare() {
+        return FrameUtility.prepare(Device.DATA_CAPTURED, this.capture);
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import de.m6c7l.sniffer.app.Device;
+import de.m6c7l.sniffer.app.FrameUtility;
+
+// synthetic traffic as sent by BitCatcher devices
+public class Frames {
+
+    private Frames() {}
+
+    // content of a data frame: 8 bytes header (timing, channel), ieee 802.15.4 frame of given size including fcs
+    public static byte[] capture(Random rnd, String type, int size, long timing, int channel) {
+        byte[] cnt = new byte[8 + size];
+        if ("DE".equals(type)) {
+            for (int i = 0; i < 4; i++) cnt[i] = (byte)(timing >> (8 * i));
+        } else {
+            for (int i = 0; i < 3; i++) cnt[i + 1] = (byte)(timing >> (8 * i));
+        }
+        cnt[5] = (byte)channel;
+        byte[] psdu = new byte[size - 2];
+        rnd.nextBytes(psdu);
+        System.arraycopy(psdu, 0, cnt, 8, psdu.length);
+        int crc = FrameUtility.crc(psdu);
+        cnt[cnt.length - 2] = (byte)crc;
+        cnt[cnt.length - 1] = (byte)(crc >>> 8);
+        return cnt;
+    }
+
+    // serial frames of captured data, as read from the port
+    public static byte[] stream(Random rnd, String type, int size, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buf = FrameUtility.prepare(Device.DATA_CAPTURED, capture(rnd, type, size, 1000L * i, 26));
+            out.write(buf.array(), 0, buf.limit());
+        }
+        return out.toByteArray();
+    }
+
+    // reply of status request telling the device type
+    public static byte[] status(String type) {
+        return new byte[] { (byte)("DE".equals(type) ? 0x01 : 0x02) };
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.m6c7l.sniffer.app.FrameListener;
+import de.m6c7l.sniffer.app.PortReader;
+
+// decoding of serial chunks holding several frames, split at arbitrary positions like serial events do
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PortReaderBenchmark {
+
+    @Param({"5", "20", "64", "127"})
+    public int size;
+
+    @Param({"DE", "RZ"})
+    public String type;
+
+    // bytes per serial event
+    @Param({"64", "1024"})
+    public int chunk;
+
+    private byte[] stream;
+    private PortReader reader;
+
+    @Setup
+    public void setup(final Blackhole bh) {
+        this.stream = Frames.stream(new Random(size), type, size, 64);
+        this.reader = new PortReader(null);
+        this.reader.addListener(new FrameListener() {
+            public void receive(byte id, byte[] frame) {
+                bh.consume(frame);
+            }
+        });
+    }
+
+    // one operation is a stream of 64 frames
+    @Benchmark
+    public void process() {
+        for (int off = 0; off < this.stream.length; off += this.chunk) {
+            this.reader.process(this.stream, off, Math.min(this.chunk, this.stream.length - off));
+        }
+    }
+
+}
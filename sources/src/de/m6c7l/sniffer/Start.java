@@ -5,14 +5,46 @@
 
 package de.m6c7l.sniffer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
+import javax.management.JMException;
+
+import de.m6c7l.sniffer.app.BinaryReader;
+import de.m6c7l.sniffer.app.BinaryWriter;
+import de.m6c7l.sniffer.app.Capture;
+import de.m6c7l.sniffer.app.CaptureFilter;
+import de.m6c7l.sniffer.app.CaptureSink;
+import de.m6c7l.sniffer.app.CaptureStore;
+import de.m6c7l.sniffer.app.ChannelScanner;
+import de.m6c7l.sniffer.app.CompressedReader;
+import de.m6c7l.sniffer.app.CompressedWriter;
 import de.m6c7l.sniffer.app.Device;
-import gnu.io.NoSuchPortException;
-import gnu.io.PortInUseException;
-import gnu.io.UnsupportedCommOperationException;
+import de.m6c7l.sniffer.app.ExportServer;
+import de.m6c7l.sniffer.app.FrameMerger;
+import de.m6c7l.sniffer.app.FramePipeline;
+import de.m6c7l.sniffer.app.Injector;
+import de.m6c7l.sniffer.app.LineWriter;
+import de.m6c7l.sniffer.app.Metrics;
+import de.m6c7l.sniffer.app.PcapWriter;
+import de.m6c7l.sniffer.app.PipeReader;
+import de.m6c7l.sniffer.app.Query;
+import de.m6c7l.sniffer.app.Replay;
+import de.m6c7l.sniffer.app.SequenceTracker;
+import de.m6c7l.sniffer.app.TrafficStats;
 
 public class Start {
    
@@ -25,88 +57,174 @@ public class Start {
         }
         */
         
-        byte status = -4;
-        
-        Object[] param = Utility.parse(args);
-        if ((param[0] != null) && (param[1] != null)) {
-            
-            String port = (String)param[0];
-            Device device = new Device();
+        Map<String, List<String>> opts = Utility.options(args);
+        List<String> ports = opts.get("p");
+        List<String> channels = opts.get("c");
+        if (opts.containsKey("q") && opts.get("q").size() > 0) {
 
-            try {
-                // connect
-                if (device.connect(port)) {
-                    Thread.sleep(50L);                    
-                    status++; // -3
-                    
-                    // try to reset
-                    if (device.reset()) {
-                        Thread.sleep(50L);
-                        status++; // -2
-                        
-                        // get device info
-                        device.status();
-                        Thread.sleep(50L);
-                        
-                        // try to set a channel
-                        if (device.channel((String)param[1])) {
-                            Thread.sleep(50L);
-                            status++; // -1
-                                                        
-                            // channel is accepted by transceiver
-                            if (device.channel() != null) { 
-                                Thread.sleep(50L);
-                                status++; // 0
-                                
-                                // enable device (start sniffing on given channel)
-                                device.enable(true);
-                                Thread.sleep(50L);
-
-//                                // example 1: send a string message on monitored channel
-//                                device.send(device.channel(), "hello, world.");
-//
-//                                // example 2: send a byte message on channel 26
-//                                device.send(26, Utility.arr(Utility.hex("hello, world.".getBytes())));
-//
-//                                // example 3: send aother byte message on channel 11
-//                                device.send(11, Utility.arr("68 65 6c 6c 6f 2c 20 77 6f 72 6c 64 2e"));
+            // frames of stored captures matching a time range and filter
+            query(opts, output(opts, 1024));
+
+        } else if (opts.containsKey("r") && opts.get("r").size() > 0) {
+
+            // offline processing of a raw dump or text output
+            replay(opts, output(opts, 1024));
+
+        } else if ((ports != null) && (channels != null) && (ports.size() > 0) && (ports.size() == channels.size())) {
 
+            CaptureSink out = output(opts, 1);
+
+            // frames of several devices are merged into one stream, ordered within a window of milliseconds
+            final FrameMerger merger = ports.size() > 1 ? new FrameMerger(out, Utility.option(opts, "m", 0, 100) * 1000) : null;
+
+            // counters of all devices, published as mbean and printed every some seconds
+            Metrics metrics = new Metrics();
+
+            // retransmissions and missed frames per source, shared by all devices
+            final SequenceTracker tracker = opts.containsKey("t") ? new SequenceTracker((int)Utility.option(opts, "t", 0, 4096)) : null;
+
+            // traffic per pan and node, shared by all devices
+            final TrafficStats stats = opts.containsKey("a") ? new TrafficStats() : null;
+
+            // frames exported to the network, as zep to given addresses and to subscribers of a tcp port
+            final ExportServer export = export(opts);
+
+            // frames kept in segments of a directory, indexed by time and address
+            final CaptureStore store = store(opts);
+
+            final Device[] devices = new Device[ports.size()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = new Device();
+                devices[i].metrics(metrics);
+                // port read on serial events (default) or by a thread of its own
+                devices[i].threaded(opts.containsKey("x") && opts.get("x").size() > 0 && opts.get("x").get(0).equals("thread"));
+                devices[i].filter(filter(opts));
+                if (tracker != null) devices[i].addSink(tracker);
+                if (stats != null) devices[i].addSink(stats);
+                if (export != null) devices[i].addSink(export);
+                if (store != null) devices[i].addSink(store);
+                devices[i].addSink(merger != null ? merger.input() : out);
+                // ring between port and processing: capacity, wait strategy, overflow policy
+                if (opts.containsKey("b")) {
+                    List<String> b = opts.get("b");
+                    try {
+                        devices[i].pipeline(new FramePipeline(
+                                (int)Utility.option(opts, "b", 0, 4096),
+                                b.size() > 1 ? FramePipeline.Wait.valueOf(b.get(1).toUpperCase()) : FramePipeline.Wait.PARK,
+                                b.size() > 2 ? FramePipeline.Overflow.valueOf(b.get(2).toUpperCase().replace('-', '_')) : FramePipeline.Overflow.BLOCK));
+                    } catch (IllegalArgumentException e) {
+                        error("illegal pipeline: " + b);
+                    }
+                }
+            }
+
+            byte status = 0;
+            boolean connected = false;
+            for (int i = 0; i < devices.length; i++) {
+                String port = ports.get(i);
+                try {
+                    byte s = start(devices[i], port, channels.get(i));
+                    if (s == -4) continue; // not connected
+                    connected = true;
+                    if (s != 0) status = s;
+                    // device info to output
+                    System.err.println(devices[i]);
+                } catch (IOException e) {
+                    error(e.getMessage() != null ? e.getMessage() : "device not responding");
+                }
+            }
+
+            if (connected) {
+
+                // catch SIGINT (e.g. ctrl-c) and shutdown gently
+                final CaptureSink sink = out;
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    public void run() {
+                        try {
+                            for (Device device : devices) device.enable(false);
+                            for (Device device : devices) {
+                                device.flush();
+                                device.disconnect();
+                                System.err.println(device.pipeline());
+                            }
+                            if (merger != null) merger.flush();
+                            sink.flush();
+                            if (tracker != null) System.err.println(tracker);
+                            if (export != null) {
+                                System.err.println(export);
+                                export.close();
+                            }
+                            if (store != null) {
+                                System.err.println(store);
+                                store.close();
                             }
+                        } catch (IOException e) {
+                            System.err.println(e.getMessage());
                         }
-                    }    
+                    }
+                });
 
-                    // catch SIGINT (e.g. ctrl-c) and shutdown gently
-                    Runtime.getRuntime().addShutdownHook(new Thread() {
+                if (status != 0) {
+                    try {
+                        for (Device device : devices) device.disconnect();
+                    } catch (IOException e) {}
+                    System.exit(1);
+                }
+
+                try {
+                    metrics.start(Utility.option(opts, "j", 0, 0));
+                } catch (JMException e) {
+                    System.err.println(e.getMessage());
+                }
+
+                // accept input via stdin, controlling the first device
+                PipeReader pipe = new PipeReader(devices, System.in);
+                if (tracker != null) pipe.report(tracker);
+                if (export != null) pipe.report(export);
+                if (store != null) pipe.report(store);
+                if (stats != null) {
+                    pipe.report(stats);
+                    pipe.command("stats", new Runnable() {
                         public void run() {
                             try {
-                                device.enable(false);
-                                Thread.sleep(50L);
-                                device.disconnect();
-                            } catch (IOException | InterruptedException e) {
+                                stats.snapshot(System.err);
+                            } catch (IOException e) {
                                 System.err.println(e.getMessage());
                             }
                         }
                     });
+                    // snapshot every some seconds to file or stderr
+                    long interval = Utility.option(opts, "a", 0, 0);
+                    List<String> a = opts.get("a");
+                    if (interval > 0) stats.start(interval, a.size() > 1 ? new File(a.get(1)) : null);
+                }
+                pipe.start();
 
-                    // device info to output
-                    System.err.println(device);
+                // hop through channels, given ones are shared among devices
+                if (opts.containsKey("s")) {
+                    List<String> sc = opts.get("s");
+                    int[] all = null;
+                    try {
+                        all = ChannelScanner.parse(sc.size() > 2 ? sc.subList(2, sc.size()) : Arrays.asList("11-26"));
+                    } catch (IllegalArgumentException e) {
+                        error("illegal channels: " + sc.subList(2, sc.size()));
+                    }
+                    for (int i = 0; i < devices.length; i++) {
+                        int[] part = new int[(all.length - i + devices.length - 1) / devices.length];
+                        for (int k = 0; k < part.length; k++) part[k] = all[i + k * devices.length];
+                        if (part.length == 0) continue;
+                        ChannelScanner scanner = new ChannelScanner(devices[i], part,
+                                Utility.option(opts, "s", 0, 250), Utility.option(opts, "s", 1, 2000));
+                        devices[i].addSink(scanner);
+                        scanner.start();
+                    }
+                }
 
-                    if (status != 0) {
-                        device.disconnect();
-                        System.exit(1);
-                    } 
-                            
+                // transmit frames recorded earlier, keeping the gaps between them
+                if (opts.containsKey("i") && opts.get("i").size() > 0) {
+                    pipe.report(inject(opts, devices[0]));
                 }
-            } catch (IOException e) {
-                error("device not responding");
-            } catch (NoSuchPortException e) {
-                error("no such port: " + port);
-            } catch (PortInUseException e) {
-                error("port in use: " + port);
-            } catch (UnsupportedCommOperationException e) {
-                error("");
-            } catch (InterruptedException e) {
-                error("");
+
             }
             
         } else {
@@ -117,6 +235,225 @@ public class Start {
         
     }
 
+    // destination of captured frames
+    private static CaptureSink output(Map<String, List<String>> opts, int lines) {
+        CaptureSink out = null;
+        if (opts.containsKey("w") && opts.get("w").size() > 0) {
+            // write capture file, rotated after some megabytes and/or seconds
+            try {
+                out = new PcapWriter(opts.get("w").get(0),
+                        Utility.option(opts, "w", 1, 0) * 1000 * 1000,
+                        Utility.option(opts, "w", 2, 0) * 1000);
+            } catch (IOException e) {
+                error("cannot write: " + opts.get("w").get(0));
+            }
+        } else if (opts.containsKey("o") && opts.get("o").size() > 0 && opts.get("o").get(0).equals("binary")) {
+            // binary records, flushed after some frames and/or milliseconds
+            out = new BinaryWriter(
+                    (int)Utility.option(opts, "f", 0, lines),
+                    Utility.option(opts, "f", 1, 0));
+        } else if (opts.containsKey("o") && opts.get("o").size() > 0 && opts.get("o").get(0).equals("compressed")) {
+            // blocks of compressed frames, written after some frames (or 64 KiB) and/or milliseconds
+            out = new CompressedWriter(
+                    (int)Utility.option(opts, "f", 0, 4096),
+                    Utility.option(opts, "f", 1, 1000));
+        } else {
+            // flush output after some lines and/or milliseconds, default is every line while capturing
+            out = new LineWriter(
+                    (int)Utility.option(opts, "f", 0, lines),
+                    Utility.option(opts, "f", 1, 0));
+        }
+        return out;
+    }
+
+    // process a file as fast as possible, type of device (DE, RZ) is needed for raw dumps lacking a status reply
+    private static void replay(Map<String, List<String>> opts, CaptureSink out) {
+        List<String> r = opts.get("r");
+        File file = new File(r.get(0));
+        Device device = new Device();
+        device.addSink(out);
+        device.filter(filter(opts));
+        if (r.size() > 1 && !device.type(r.get(1))) {
+            error("unknown device type: " + r.get(1));
+        }
+        Replay replay = new Replay(device);
+        try {
+            long time = System.currentTimeMillis();
+            if (Replay.textual(file)) {
+                replay.text(file);
+            } else {
+                replay.raw(file);
+            }
+            out.flush();
+            System.err.println(replay + " " + (System.currentTimeMillis() - time) + " ms");
+        } catch (IOException e) {
+            error("cannot read: " + file);
+        }
+    }
+
+    private static void query(Map<String, List<String>> opts, CaptureSink out) {
+        List<String> q = opts.get("q");
+        File source = new File(q.get(0));
+        Query query = new Query(
+                q.size() > 1 ? time(q.get(1), Long.MIN_VALUE) : Long.MIN_VALUE,
+                q.size() > 2 ? time(q.get(2), Long.MAX_VALUE) : Long.MAX_VALUE,
+                filter(opts), out);
+        try {
+            long time = System.currentTimeMillis();
+            query.run(source);
+            System.err.println(query + " " + (System.currentTimeMillis() - time) + " ms");
+        } catch (IOException e) {
+            error("cannot read: " + source + " (" + e.getMessage() + ")");
+        }
+    }
+
+    // time [us] given in ms since epoch or as local date and time (e.g. 2018-01-21T03:00), 0 for none
+    private static long time(String value, long none) {
+        try {
+            long ms = Long.parseLong(value);
+            return ms == 0 ? none : ms * 1000;
+        } catch (NumberFormatException e) {}
+        try {
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() * 1000;
+        } catch (DateTimeParseException e) {
+            error("illegal time: " + value);
+            return none;
+        }
+    }
+
+    // frames of text output or binary records sent by the device, loaded while sending
+    private static Injector inject(Map<String, List<String>> opts, Device device) {
+        List<String> i = opts.get("i");
+        File file = new File(i.get(0));
+        Injector injector = null;
+        try {
+            injector = new Injector(device,
+                    i.size() > 1 ? Double.parseDouble(i.get(1)) : 1.0,
+                    (int)Utility.option(opts, "i", 2, 8));
+        } catch (NumberFormatException e) {
+            error("illegal speed: " + i.get(1));
+        }
+        injector.start();
+        try {
+            if (CompressedReader.compressed(file)) {
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    CompressedReader reader = new CompressedReader(ch);
+                    Capture capture;
+                    while ((capture = reader.next()) != null) injector.write(capture);
+                }
+            } else if (Replay.textual(file)) {
+                Device loader = new Device();
+                loader.addSink(injector);
+                new Replay(loader).text(file);
+            } else {
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    BinaryReader reader = new BinaryReader(ch);
+                    Capture capture;
+                    while ((capture = reader.next()) != null) injector.write(capture);
+                }
+            }
+            injector.close();
+        } catch (IOException e) {
+            error("cannot read: " + file);
+        }
+        return injector;
+    }
+
+    // capture store, segments of some megabytes are kept up to a number of segments
+    private static CaptureStore store(Map<String, List<String>> opts) {
+        if (!opts.containsKey("d") || opts.get("d").size() == 0) return null;
+        File dir = new File(opts.get("d").get(0));
+        try {
+            return new CaptureStore(dir, Utility.option(opts, "d", 1, 64) * 1024 * 1024, (int)Utility.option(opts, "d", 2, 0));
+        } catch (IOException e) {
+            error("cannot store: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // export service, if any addresses or a port are given
+    private static ExportServer export(Map<String, List<String>> opts) {
+        boolean zep = opts.containsKey("z") && opts.get("z").size() > 0;
+        boolean tcp = opts.containsKey("l");
+        if (!zep && !tcp) return null;
+        List<SocketAddress> targets = new ArrayList<SocketAddress>();
+        if (zep) {
+            for (String t : opts.get("z")) {
+                int colon = t.lastIndexOf(':');
+                try {
+                    targets.add(new InetSocketAddress(colon < 0 ? t : t.substring(0, colon),
+                            colon < 0 ? ExportServer.ZEP_PORT : Integer.parseInt(t.substring(colon + 1))));
+                } catch (IllegalArgumentException e) {
+                    error("illegal address: " + t);
+                }
+            }
+        }
+        try {
+            return new ExportServer(tcp ? (int)Utility.option(opts, "l", 0, 0) : -1, targets);
+        } catch (IOException e) {
+            error("cannot export: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // filter of captured frames, compiled for each device
+    private static CaptureFilter filter(Map<String, List<String>> opts) {
+        if (!opts.containsKey("e") || opts.get("e").isEmpty()) return null;
+        String expr = String.join(" ", opts.get("e"));
+        try {
+            return CaptureFilter.compile(expr);
+        } catch (IllegalArgumentException e) {
+            error(e.getMessage());
+            return null;
+        }
+    }
+
+    // connect to device and start capturing, returns 0 on success
+    private static byte start(Device device, String port, String channel) throws IOException {
+
+        byte status = -4;
+
+        // connect
+        if (device.connect(port)) {
+            status++; // -3
+            
+            // try to reset
+            if (device.reset()) {
+                status++; // -2
+                
+                // get device info
+                device.status();
+                
+                // try to set a channel
+                if (device.channel(channel)) {
+                    status++; // -1
+                                                
+                    // channel is accepted by transceiver
+                    if (device.channel() != null) { 
+                        status++; // 0
+                        
+                        // enable device (start sniffing on given channel)
+                        device.enable(true);
+
+//                        // example 1: send a string message on monitored channel
+//                        device.send(device.channel(), "hello, world.");
+//
+//                        // example 2: send a byte message on channel 26
+//                        device.send(26, Utility.arr(Utility.hex("hello, world.".getBytes())));
+//
+//                        // example 3: send aother byte message on channel 11
+//                        device.send(11, Utility.arr("68 65 6c 6c 6f 2c 20 77 6f 72 6c 64 2e"));
+
+                    }
+                }
+            }    
+
+        }
+
+        return status;
+
+    }
+
     /*    
     //private static String jniLib = null;
     private static UnsatisfiedLinkError jniLink = null;
@@ -177,8 +514,25 @@ public class Start {
         System.err.println(
                 new StringBuilder("usage: ")
                 .append(new java.io.File(Utility.jar(Start.class).getFile()).getName())
-                .append(" -p [port]")
-                .append(" -c [channel]").toString());
+                .append(" -p [port ...]")
+                .append(" -c [channel ...]")
+                .append(" [-m [ms]]")
+                .append(" [-s [min ms] [max ms] [channels ...]]")
+                .append(" | -r [file] [DE|RZ]")
+                .append(" | -q [file|directory] [from] [to]")
+                .append(" [-o [text|binary|compressed]]")
+                .append(" [-f [lines] [ms]]")
+                .append(" [-w [file] [megabytes] [seconds]]")
+                .append(" [-b [capacity] [spin|yield|park] [block|drop-newest|drop-oldest]]")
+                .append(" [-e [expression]]")
+                .append(" [-t [sources]]")
+                .append(" [-a [seconds] [file]]")
+                .append(" [-z [host[:port]] ...]")
+                .append(" [-l [port]]")
+                .append(" [-j [seconds]]")
+                .append(" [-x [event|thread]]")
+                .append(" [-i [file] [speed] [window]]")
+                .append(" [-d [directory] [megabytes] [segments]]").toString());
         System.exit(1);
     }
 
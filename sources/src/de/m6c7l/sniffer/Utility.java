@@ -76,7 +76,8 @@ public class Utility {
     
     // --- args ---
     
-    public static Object[] parse(String[] args) {
+    // all options given, each followed by its values
+    public static Map<String, List<String>> options(String[] args) {
         final Map<String, List<String>> params = new HashMap<>();
         List<String> options = null;
         for (int i = 0; i < args.length; i++) {
@@ -93,14 +94,18 @@ public class Utility {
             //    throw new IllegalArgumentException("illegal parameter usage");
             }
         }
-        Object[] result = new Object[] {null, null};        
-        if ((params.get("p") != null) && (params.get("p").size() == 1)) {
-            result[0] = params.get("p").get(0);
+        return params;
+    }
+
+    // integer value of an option, default if not given or malformed
+    public static long option(Map<String, List<String>> params, String key, int index, long def) {
+        List<String> values = params.get(key);
+        if ((values == null) || (values.size() <= index)) return def;
+        try {
+            return Long.parseLong(values.get(index));
+        } catch (NumberFormatException e) {
+            return def;
         }
-        if ((params.get("c") != null) && (params.get("c").size() == 1)) {
-            result[1] = params.get("c").get(0);
-        }     
-        return result;
     }
     
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+// reads binary records (see CaptureRecord) written by BinaryWriter or sent to subscribers of ExportServer,
+// the same capture is filled by every record read, nothing is allocated per frame
+public class BinaryReader {
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer buf;
+    private final Capture capture = new Capture();
+    private long records = 0;
+
+    public BinaryReader(ReadableByteChannel in) {
+        this(in, 1 << 16);
+    }
+
+    public BinaryReader(ReadableByteChannel in, int size) {
+        this.in = in;
+        this.buf = ByteBuffer.allocate(Math.max(size, CaptureRecord.HEADER + 0xff)).order(ByteOrder.LITTLE_ENDIAN);
+        this.buf.flip();
+    }
+
+    // number of records read
+    public long records() {
+        return this.records;
+    }
+
+    // next record, valid until the next call, or null at end of stream
+    public Capture next() throws IOException {
+        if (!this.fill(CaptureRecord.HEADER)) return null;
+        int len = CaptureRecord.length(this.buf, this.buf.position());
+        if (len < 0) throw new IOException("not a binary record");
+        if (!this.fill(CaptureRecord.HEADER + len)) throw new EOFException("truncated record");
+        int pos = this.buf.position();
+        CaptureRecord.decode(this.buf, pos, this.capture);
+        this.buf.position(pos + CaptureRecord.HEADER + len);
+        this.records++;
+        return this.capture;
+    }
+
+    // make sure given number of bytes are buffered, false if stream ended before any byte
+    private boolean fill(int n) throws IOException {
+        if (this.buf.remaining() >= n) return true;
+        this.buf.compact();
+        try {
+            while (this.buf.position() < n) {
+                if (this.in.read(this.buf) < 0) {
+                    if (this.buf.position() == 0) return false;
+                    throw new EOFException("truncated record");
+                }
+            }
+        } finally {
+            this.buf.flip();
+        }
+        return true;
+    }
+
+}
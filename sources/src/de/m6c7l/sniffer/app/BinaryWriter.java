@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+// writes captured frames as binary records (see CaptureRecord), to be read by BinaryReader
+public class BinaryWriter implements CaptureSink {
+
+    private static final int RECORD_MAX = CaptureRecord.HEADER + 0xff;
+
+    private final WritableByteChannel out;
+    private final ByteBuffer buf;
+
+    // flush policy: after a number of frames and/or after some milliseconds
+    private final int frames;
+    private final long interval;
+
+    private int pending = 0;
+    private long flushed = System.currentTimeMillis();
+
+    // buffered writing to stdout
+    public BinaryWriter(int frames, long interval) {
+        this(new FileOutputStream(FileDescriptor.out).getChannel(), frames, interval);
+    }
+
+    public BinaryWriter(WritableByteChannel out, int frames, long interval) {
+        this.out = out;
+        this.frames = Math.max(1, frames);
+        this.interval = interval;
+        this.buf = ByteBuffer.allocateDirect(Math.max(RECORD_MAX, Math.min(this.frames, 256) * 64)).order(ByteOrder.LITTLE_ENDIAN);
+        if (interval > 0) {
+            // flush frames left in buffer if capturing goes quiet
+            Thread t = new Thread() {
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(BinaryWriter.this.interval);
+                            BinaryWriter.this.flush(false);
+                        } catch (InterruptedException | IOException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public synchronized void write(Capture frame) throws IOException {
+        if (this.buf.remaining() < RECORD_MAX) this.drain();
+        CaptureRecord.encode(frame, this.buf);
+        this.pending++;
+        if (this.pending >= this.frames) {
+            this.drain();
+        } else if (this.interval > 0) {
+            this.flush(false);
+        }
+    }
+
+    public void flush() throws IOException {
+        this.flush(true);
+    }
+
+    public synchronized void flush(boolean force) throws IOException {
+        if (force || System.currentTimeMillis() - this.flushed >= this.interval) {
+            this.drain();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        this.drain();
+        this.out.close();
+    }
+
+    private void drain() throws IOException {
+        this.buf.flip();
+        while (this.buf.hasRemaining()) {
+            this.out.write(this.buf);
+        }
+        this.buf.clear();
+        this.pending = 0;
+        this.flushed = System.currentTimeMillis();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// fast compression of blocks up to 64 KiB in the lz4 block format: sequences of literals followed by a
+// match of at least 4 bytes, found by a hash table of positions, at most 64 KiB back
+public class BlockCompressor {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;  // block ends with literals
+    private static final int MATCH_LIMIT = 12;   // last match starts before
+    private static final int HASH_LOG = 12;
+    private static final int SKIP = 6;           // step grows on bytes not matching, for incompressible data
+
+    private final int[] table = new int[1 << HASH_LOG];
+
+    // bytes needed for compression of given number of bytes in the worst case
+    public static int bound(int len) {
+        return len + len / 255 + 16;
+    }
+
+    // compress bytes into given array of at least bound(len) bytes, returns number of bytes compressed to
+    public int compress(byte[] src, int off, int len, byte[] dst, int doff) {
+        Arrays.fill(this.table, -1);
+        int end = off + len;
+        int limit = end - MATCH_LIMIT;
+        int last = end - LAST_LITERALS;
+        int anchor = off;
+        int s = off + 1;
+        int d = doff;
+        while (s < limit) {
+            int v = read(src, s);
+            int h = hash(v);
+            int ref = this.table[h];
+            this.table[h] = s;
+            if (ref < 0 || s - ref > 0xffff || read(src, ref) != v) {
+                s += 1 + ((s - anchor) >>> SKIP);
+                continue;
+            }
+            // extend match backwards into literals, then forwards
+            while (s > anchor && ref > off && src[s - 1] == src[ref - 1]) {
+                s--;
+                ref--;
+            }
+            int n = MIN_MATCH;
+            while (s + n < last && src[s + n] == src[ref + n]) n++;
+            d = this.sequence(src, anchor, s - anchor, s - ref, n, dst, d);
+            s += n;
+            anchor = s;
+        }
+        d = this.sequence(src, anchor, end - anchor, 0, 0, dst, d);
+        return d - doff;
+    }
+
+    // token, literals and, unless last sequence, offset and length of match
+    private int sequence(byte[] src, int lit, int n, int offset, int match, byte[] dst, int d) {
+        int ml = match - MIN_MATCH;
+        int token = d++;
+        dst[token] = (byte)((Math.min(n, 15) << 4) | (match > 0 ? Math.min(ml, 15) : 0));
+        if (n >= 15) d = length(n - 15, dst, d);
+        System.arraycopy(src, lit, dst, d, n);
+        d += n;
+        if (match > 0) {
+            dst[d++] = (byte)offset;
+            dst[d++] = (byte)(offset >>> 8);
+            if (ml >= 15) d = length(ml - 15, dst, d);
+        }
+        return d;
+    }
+
+    private static int length(int n, byte[] dst, int d) {
+        for (; n >= 255; n -= 255) dst[d++] = (byte)0xff;
+        dst[d++] = (byte)n;
+        return d;
+    }
+
+    // decompress bytes into given array having room for up to max bytes, returns number of bytes decompressed
+    public static int decompress(byte[] src, int off, int len, byte[] dst, int doff, int max) throws IOException {
+        int s = off;
+        int end = off + len;
+        int d = doff;
+        int dend = doff + max;
+        while (s < end) {
+            int token = src[s++] & 0xff;
+            int n = token >>> 4;
+            if (n == 15) {
+                int b;
+                do {
+                    if (s >= end) throw new IOException("corrupt block");
+                    n += b = src[s++] & 0xff;
+                } while (b == 255);
+            }
+            if (s + n > end || d + n > dend) throw new IOException("corrupt block");
+            System.arraycopy(src, s, dst, d, n);
+            s += n;
+            d += n;
+            // last sequence has literals only
+            if (s == end) break;
+            if (s + 2 > end) throw new IOException("corrupt block");
+            int offset = (src[s] & 0xff) | ((src[s + 1] & 0xff) << 8);
+            s += 2;
+            int ml = token & 0x0f;
+            if (ml == 15) {
+                int b;
+                do {
+                    if (s >= end) throw new IOException("corrupt block");
+                    ml += b = src[s++] & 0xff;
+                } while (b == 255);
+            }
+            ml += MIN_MATCH;
+            int ref = d - offset;
+            if (offset == 0 || ref < doff || d + ml > dend) throw new IOException("corrupt block");
+            // byte by byte, as match may overlap bytes it produces
+            for (int i = 0; i < ml; i++) dst[d + i] = dst[ref + i];
+            d += ml;
+        }
+        return d - doff;
+    }
+
+    private static int read(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+// view on a captured frame, reused by the device for each frame received
+public class Capture {
+
+    private int channel;
+    private long stamp;  // [ms] of hosts clock
+    private long time;   // [us] since epoch, to be used for capture files and ordering
+    private long timing; // [us] of capturing device, as read from the frame header
+    private long delta;  // [us] elapsed on capturing device since last frame
+    private byte[] buf;
+    private int off;
+    private int len;
+    private boolean valid;
+    private int track;   // result of sequence tracking, see SequenceTracker
+
+    public Capture() {
+        super();
+    }
+
+    void set(int channel, long stamp, long time, long timing, long delta, byte[] buf, int off, int len, boolean valid) {
+        this.channel = channel;
+        this.stamp = stamp;
+        this.time = time;
+        this.timing = timing;
+        this.delta = delta;
+        this.buf = buf;
+        this.off = off;
+        this.len = len;
+        this.valid = valid;
+        this.track = SequenceTracker.UNTRACKED;
+    }
+
+    void track(int track) {
+        this.track = track;
+    }
+
+    public int channel() {
+        return this.channel;
+    }
+
+    public long stamp() {
+        return this.stamp;
+    }
+
+    // timestamp [us] to be used for capture files
+    public long time() {
+        return this.time;
+    }
+
+    public long timing() {
+        return this.timing;
+    }
+
+    public long delta() {
+        return this.delta;
+    }
+
+    // ieee 802.15.4 frame including fcs
+    public byte[] buffer() {
+        return this.buf;
+    }
+
+    public int offset() {
+        return this.off;
+    }
+
+    public int length() {
+        return this.len;
+    }
+
+    // fcs is valid?
+    public boolean valid() {
+        return this.valid;
+    }
+
+    // NEW, RETRY, UNTRACKED (also if not tracked at all) or number of frames missed before
+    public int track() {
+        return this.track;
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// predicate over captured frames, compiled once from an expression like
+//   channel == 26 and type == data and pan == 0x1234 and not (src == 0x0001 or frame[9] & 0xf0 == 0x40)
+// instances keep a view of the frame under test and are to be used by one thread at a time
+public class CaptureFilter {
+
+    // value of fields not present in a frame, comparisons of such fields never match
+    private static final long NONE = Long.MIN_VALUE;
+
+    // comparison operators
+    private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+    private final String expression;
+    private final Node root;
+    private final MacFrame mac = new MacFrame();
+
+    private CaptureFilter(String expression, Node root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    // frame to be passed?
+    public boolean test(Capture frame) {
+        return this.root.test(frame, this.mac.wrap(frame));
+    }
+
+    public String expression() {
+        return this.expression;
+    }
+
+    // address every frame passed is sent from or to, null if not implied by the expression (e.g. src == 0x1a2b)
+    public Long address() {
+        long a = this.root.address();
+        return a == NONE ? null : a;
+    }
+
+    public String toString() {
+        return "{filter={expression=" + this.expression + "}}";
+    }
+
+    // compiles given expression, throws IllegalArgumentException if malformed
+    public static CaptureFilter compile(String expression) {
+        Parser p = new Parser(expression);
+        Node root = p.or();
+        if (p.peek() != null) throw p.error("unexpected '" + p.peek() + "'");
+        return new CaptureFilter(expression.trim(), root);
+    }
+
+    // --- compiled tree ---
+
+    private static abstract class Node {
+        abstract boolean test(Capture c, MacFrame m);
+        long address() {
+            return NONE;
+        }
+    }
+
+    private static abstract class Field {
+        abstract long get(Capture c, MacFrame m);
+    }
+
+    private static class Compare extends Node {
+
+        private final Field field;
+        private final long mask;
+        private final int op;
+        private final long value;
+
+        Compare(Field field, long mask, int op, long value) {
+            this.field = field;
+            this.mask = mask;
+            this.op = op;
+            this.value = value;
+        }
+
+        // same comparison of another field
+        Compare with(Field field) {
+            return new Compare(field, this.mask, this.op, this.value);
+        }
+
+        boolean test(Capture c, MacFrame m) {
+            long v = this.field.get(c, m);
+            if (v == NONE) return false;
+            v &= this.mask;
+            switch (this.op) {
+            case EQ: return v == this.value;
+            case NE: return v != this.value;
+            case LT: return Long.compareUnsigned(v, this.value) < 0;
+            case LE: return Long.compareUnsigned(v, this.value) <= 0;
+            case GT: return Long.compareUnsigned(v, this.value) > 0;
+            default: return Long.compareUnsigned(v, this.value) >= 0;
+            }
+        }
+
+        long address() {
+            boolean addr = this.field == SRC || this.field == DST;
+            return addr && this.op == EQ && this.mask == -1L ? this.value : NONE;
+        }
+
+    }
+
+    private static class Or extends Node {
+
+        private final Node a, b;
+
+        Or(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean test(Capture c, MacFrame m) {
+            return this.a.test(c, m) || this.b.test(c, m);
+        }
+
+        long address() {
+            long a = this.a.address();
+            return a == this.b.address() ? a : NONE;
+        }
+
+    }
+
+    private static class And extends Node {
+
+        private final Node a, b;
+
+        And(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean test(Capture c, MacFrame m) {
+            return this.a.test(c, m) && this.b.test(c, m);
+        }
+
+        long address() {
+            long a = this.a.address();
+            return a != NONE ? a : this.b.address();
+        }
+
+    }
+
+    private static class Not extends Node {
+
+        private final Node a;
+
+        Not(Node a) {
+            this.a = a;
+        }
+
+        boolean test(Capture c, MacFrame m) {
+            return !this.a.test(c, m);
+        }
+
+    }
+
+    // big endian value of some bytes of the frame
+    private static class Bytes extends Field {
+
+        private final int off;
+        private final int len;
+
+        Bytes(int off, int len) {
+            this.off = off;
+            this.len = len;
+        }
+
+        long get(Capture c, MacFrame m) {
+            if (this.off + this.len > c.length()) return NONE;
+            byte[] buf = c.buffer();
+            int pos = c.offset() + this.off;
+            long v = 0;
+            for (int i = 0; i < this.len; i++) {
+                v = (v << 8) | (buf[pos + i] & 0xff);
+            }
+            return v;
+        }
+
+    }
+
+    private static final Field CHANNEL = new Field() {
+        long get(Capture c, MacFrame m) {
+            return c.channel();
+        }
+    };
+
+    private static final Field LENGTH = new Field() {
+        long get(Capture c, MacFrame m) {
+            return c.length();
+        }
+    };
+
+    private static final Field VALID = new Field() {
+        long get(Capture c, MacFrame m) {
+            return c.valid() ? 1 : 0;
+        }
+    };
+
+    private static final Field TYPE = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.type());
+        }
+    };
+
+    private static final Field VERSION = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.version());
+        }
+    };
+
+    private static final Field CONTROL = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.control());
+        }
+    };
+
+    private static final Field SEQUENCE = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.sequence());
+        }
+    };
+
+    private static final Field DPAN = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.destinationPan());
+        }
+    };
+
+    private static final Field SPAN = new Field() {
+        long get(Capture c, MacFrame m) {
+            return absent(m.sourcePan());
+        }
+    };
+
+    private static final Field DST = new Field() {
+        long get(Capture c, MacFrame m) {
+            return m.hasDestination() ? m.destination() : NONE;
+        }
+    };
+
+    private static final Field SRC = new Field() {
+        long get(Capture c, MacFrame m) {
+            return m.hasSource() ? m.source() : NONE;
+        }
+    };
+
+    private static long absent(int value) {
+        return value == MacFrame.ABSENT ? NONE : value;
+    }
+
+    // frame control flags, tested as if compared to be not zero
+    private static Node flag(final int mask) {
+        return new Compare(CONTROL, mask, NE, 0);
+    }
+
+    // --- parsing ---
+
+    private static class Parser {
+
+        private final String text;
+        private final List<String> tokens = new ArrayList<String>();
+        private final List<Integer> positions = new ArrayList<Integer>();
+        private int next = 0;
+
+        Parser(String text) {
+            this.text = text;
+            int i = 0;
+            while (i < text.length()) {
+                char ch = text.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                if (Character.isLetterOrDigit(ch) || ch == '_') {
+                    // names, numbers and colon separated addresses
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_' || text.charAt(i) == ':')) i++;
+                } else if (i + 1 < text.length() && text.substring(i, i + 2).matches("==|!=|<=|>=|&&|\\|\\|")) {
+                    i += 2;
+                } else {
+                    i++;
+                }
+                this.tokens.add(text.substring(start, i));
+                this.positions.add(start);
+            }
+        }
+
+        String peek() {
+            return this.next < this.tokens.size() ? this.tokens.get(this.next) : null;
+        }
+
+        String take() {
+            String t = this.peek();
+            if (t == null) throw this.error("unexpected end");
+            this.next++;
+            return t;
+        }
+
+        boolean accept(String... alternatives) {
+            String t = this.peek();
+            if (t == null) return false;
+            for (String a : alternatives) {
+                if (a.equalsIgnoreCase(t)) {
+                    this.next++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!this.accept(token)) throw this.error("expected '" + token + "'");
+        }
+
+        IllegalArgumentException error(String msg) {
+            int pos = this.next < this.positions.size() ? this.positions.get(this.next) : this.text.length();
+            return new IllegalArgumentException(msg + " at position " + pos + " of filter: " + this.text);
+        }
+
+        Node or() {
+            Node n = this.and();
+            while (this.accept("or", "||")) {
+                n = new Or(n, this.and());
+            }
+            return n;
+        }
+
+        Node and() {
+            Node n = this.not();
+            while (this.accept("and", "&&")) {
+                n = new And(n, this.not());
+            }
+            return n;
+        }
+
+        Node not() {
+            if (this.accept("not", "!")) return new Not(this.not());
+            return this.primary();
+        }
+
+        Node primary() {
+            if (this.accept("(")) {
+                Node n = this.or();
+                this.expect(")");
+                return n;
+            }
+            String name = this.take().toLowerCase();
+            // flags
+            if (name.equals("valid")) return new Compare(VALID, -1L, NE, 0);
+            if (name.equals("security")) return flag(0x0008);
+            if (name.equals("pending")) return flag(0x0010);
+            if (name.equals("ackreq")) return flag(0x0020);
+            if (name.equals("compression")) return flag(0x0040);
+            // fields
+            // either destination or source
+            if (name.equals("pan")) {
+                Compare c = this.compare(DPAN);
+                return new Or(c, c.with(SPAN));
+            }
+            if (name.equals("addr")) {
+                Compare c = this.compare(DST);
+                return new Or(c, c.with(SRC));
+            }
+            return this.compare(this.field(name));
+        }
+
+        Compare compare(Field field) {
+            long mask = -1L;
+            if (this.accept("&")) mask = this.number();
+            String op = this.take();
+            int code;
+            if (op.equals("==") || op.equals("=") || op.equalsIgnoreCase("eq")) code = EQ;
+            else if (op.equals("!=") || op.equalsIgnoreCase("ne")) code = NE;
+            else if (op.equals("<") || op.equalsIgnoreCase("lt")) code = LT;
+            else if (op.equals("<=") || op.equalsIgnoreCase("le")) code = LE;
+            else if (op.equals(">") || op.equalsIgnoreCase("gt")) code = GT;
+            else if (op.equals(">=") || op.equalsIgnoreCase("ge")) code = GE;
+            else {
+                this.next--;
+                throw this.error("expected comparison");
+            }
+            return new Compare(field, mask, code, this.value(field));
+        }
+
+        Field field(String name) {
+            if (name.equals("channel")) return CHANNEL;
+            if (name.equals("length") || name.equals("len")) return LENGTH;
+            if (name.equals("type")) return TYPE;
+            if (name.equals("version")) return VERSION;
+            if (name.equals("control")) return CONTROL;
+            if (name.equals("seq")) return SEQUENCE;
+            if (name.equals("dpan")) return DPAN;
+            if (name.equals("span")) return SPAN;
+            if (name.equals("dst")) return DST;
+            if (name.equals("src")) return SRC;
+            if (name.equals("frame")) {
+                // frame[offset] or frame[offset:length], length of up to 8 bytes
+                this.expect("[");
+                String t = this.take();
+                int off, len = 1;
+                try {
+                    int colon = t.indexOf(':');
+                    off = Integer.parseInt(colon < 0 ? t : t.substring(0, colon));
+                    if (colon >= 0) len = Integer.parseInt(t.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    this.next--;
+                    throw this.error("illegal offset");
+                }
+                if (off < 0 || len < 1 || len > 8) {
+                    this.next--;
+                    throw this.error("illegal offset");
+                }
+                this.expect("]");
+                return new Bytes(off, len);
+            }
+            this.next--;
+            throw this.error("unknown field '" + name + "'");
+        }
+
+        long value(Field field) {
+            String t = this.peek();
+            if (field == TYPE && t != null) {
+                String[] names = {"beacon", "data", "ack", "command", null, "multipurpose", "fragment", "extended"};
+                for (int i = 0; i < names.length; i++) {
+                    if (t.equalsIgnoreCase(names[i])) {
+                        this.next++;
+                        return i;
+                    }
+                }
+            }
+            if (field == VERSION && t != null) {
+                String[] names = {"2003", "2006", "2015"};
+                for (int i = 0; i < names.length; i++) {
+                    if (t.equals(names[i])) {
+                        this.next++;
+                        return i;
+                    }
+                }
+            }
+            return this.number();
+        }
+
+        // decimal, hexadecimal (0x...) or colon separated hexadecimal bytes (e.g. 00:12:4b:00:01:02:03:04)
+        long number() {
+            String t = this.take();
+            try {
+                if (t.indexOf(':') >= 0) {
+                    long v = 0;
+                    String[] parts = t.split(":");
+                    if (parts.length > 8) throw new NumberFormatException();
+                    for (String s : parts) v = (v << 8) | Integer.parseInt(s, 16) & 0xff;
+                    return v;
+                }
+                if (t.startsWith("0x") || t.startsWith("0X")) return Long.parseUnsignedLong(t.substring(2), 16);
+                return Long.parseLong(t);
+            } catch (NumberFormatException e) {
+                this.next--;
+                throw this.error("illegal number '" + t + "'");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// binary record of a captured frame, little endian:
+//   length of frame (2), channel (1), flags (1), host time [ns since epoch] (8), timer of device [us] (4), frame including fcs
+public class CaptureRecord {
+
+    final public static int HEADER = 16;
+
+    // flags
+    final public static int FLAG_VALID = 0x01; // fcs is valid
+
+    private CaptureRecord() {}
+
+    // bytes needed for given frame
+    public static int size(Capture frame) {
+        return HEADER + frame.length();
+    }
+
+    // appends record of frame to buffer having enough space
+    public static void encode(Capture frame, ByteBuffer out) {
+        ByteOrder order = out.order();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.putShort((short)frame.length());
+        out.put((byte)frame.channel());
+        out.put((byte)(frame.valid() ? FLAG_VALID : 0));
+        out.putLong(frame.time() * 1000);
+        out.putInt((int)frame.timing());
+        out.put(frame.buffer(), frame.offset(), frame.length());
+        out.order(order);
+    }
+
+    // length of frame of record at given position, -1 if not a record (frame too long, unknown flags)
+    public static int length(ByteBuffer in, int pos) {
+        int len = size(in, pos);
+        int flags = in.get(pos + 3) & 0xff;
+        return len > 0xff || (flags & ~FLAG_VALID) != 0 ? -1 : len;
+    }
+
+    // fills capture by record at given position, frame is copied to given array of at least 0xff bytes
+    public static void decode(ByteBuffer in, int pos, Capture capture, byte[] frame) {
+        int len = size(in, pos);
+        for (int i = 0; i < len; i++) frame[i] = in.get(pos + HEADER + i);
+        decode(in, pos, capture, frame, 0, len);
+    }
+
+    // fills capture by record at given position, frame is kept in the array backing the buffer
+    public static void decode(ByteBuffer in, int pos, Capture capture) {
+        int len = size(in, pos);
+        decode(in, pos, capture, in.array(), in.arrayOffset() + pos + HEADER, len);
+    }
+
+    // length field of record, regardless of byte order of buffer
+    private static int size(ByteBuffer in, int pos) {
+        return (in.get(pos) & 0xff) | ((in.get(pos + 1) & 0xff) << 8);
+    }
+
+    private static void decode(ByteBuffer in, int pos, Capture capture, byte[] buf, int off, int len) {
+        ByteOrder order = in.order();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        int channel = in.get(pos + 2) & 0xff;
+        boolean valid = (in.get(pos + 3) & FLAG_VALID) != 0;
+        long time = in.getLong(pos + 4) / 1000;
+        long timing = in.getInt(pos + 12) & 0xffffffffL;
+        in.order(order);
+        capture.set(channel, time / 1000, time, timing, 0, buf, off, len, valid);
+    }
+
+}
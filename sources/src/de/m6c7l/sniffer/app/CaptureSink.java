@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+
+public interface CaptureSink {
+
+    // the capture is reused afterwards, its content must be copied if kept
+    public void write(Capture frame) throws IOException;
+
+    public void flush() throws IOException;
+
+    public void close() throws IOException;
+
+}
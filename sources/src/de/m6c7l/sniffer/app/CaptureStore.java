@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// append-only store of captured frames in segments of fixed size, memory-mapped,
+// each segment holds binary records (see CaptureRecord) and is indexed by pages of 4 KiB:
+// time range of records starting in a page, and pages holding frames from or to an address,
+// the index of a full segment is kept in a file of its own, the one of the segment written is rebuilt on opening
+public class CaptureStore implements CaptureSink {
+
+    final static int PAGE = 4096;
+    final static int HEADER = 64;
+
+    private static final int MAGIC = 0x47535342;       // "BSSG"
+    private static final int MAGIC_INDEX = 0x58495342; // "BSIX"
+    private static final int VERSION = 1;
+
+    // header of segment, little endian
+    private static final int H_MAGIC = 0;   // int
+    private static final int H_VERSION = 4; // short
+    private static final int H_SEALED = 6;  // short, 1 if full
+    private static final int H_ID = 8;      // long
+    private static final int H_COUNT = 16;  // int, records
+    private static final int H_END = 20;    // int, end of last record
+    private static final int H_MIN = 24;    // long, [us] earliest time
+    private static final int H_MAX = 32;    // long, [us] latest time
+
+    // pages holding frames of an address, ascending
+    static class Postings {
+
+        int[] pages = new int[4];
+        int size = 0;
+
+        void add(int page) {
+            if (this.size > 0 && this.pages[this.size - 1] == page) return;
+            if (this.size == this.pages.length) this.pages = Arrays.copyOf(this.pages, this.size * 2);
+            this.pages[this.size++] = page;
+        }
+
+    }
+
+    static class Segment {
+
+        final File file;
+        final File index;
+        final long id;
+        final int capacity;
+
+        FileChannel channel;
+        MappedByteBuffer map;
+        boolean loaded = false;
+        boolean sealed = false;
+
+        int end = HEADER;
+        int count = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        // per page: offset of first record starting in it (-1 if none), time range of records starting in it
+        int[] first;
+        long[] pmin;
+        long[] pmax;
+        final Map<Integer, Postings> shorts = new HashMap<Integer, Postings>();
+        final Map<Long, Postings> extended = new HashMap<Long, Postings>();
+
+        Segment(File dir, long id, int capacity) {
+            this.id = id;
+            this.capacity = capacity;
+            this.file = new File(dir, String.format(Locale.ROOT, "%016d.seg", id));
+            this.index = new File(dir, String.format(Locale.ROOT, "%016d.idx", id));
+        }
+
+        // new segment, mapped for writing
+        void create() throws IOException {
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+            this.map.order(ByteOrder.LITTLE_ENDIAN);
+            this.map.putInt(H_MAGIC, MAGIC);
+            this.map.putShort(H_VERSION, (short)VERSION);
+            this.map.putLong(H_ID, this.id);
+            this.pages(this.capacity / PAGE);
+            this.loaded = true;
+        }
+
+        // header only, enough to know its time range
+        void peek() throws IOException {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            try (FileChannel ch = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                while (h.hasRemaining() && ch.read(h, h.position()) > 0);
+            }
+            if (h.getInt(H_MAGIC) != MAGIC) throw new IOException("not a segment: " + this.file);
+            this.sealed = h.getShort(H_SEALED) == 1;
+            this.count = h.getInt(H_COUNT);
+            this.end = h.getInt(H_END);
+            this.min = h.getLong(H_MIN);
+            this.max = h.getLong(H_MAX);
+        }
+
+        // map segment and get its index, from file if sealed, otherwise by scanning records written
+        void load(boolean writable) throws IOException {
+            if (this.loaded) return;
+            if (writable) {
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+            } else {
+                this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+                this.map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+            }
+            this.map.order(ByteOrder.LITTLE_ENDIAN);
+            this.pages((this.map.capacity() + PAGE - 1) / PAGE);
+            if (!this.sealed || !this.read()) this.scan();
+            this.loaded = true;
+        }
+
+        void pages(int n) {
+            this.first = new int[n];
+            this.pmin = new long[n];
+            this.pmax = new long[n];
+            Arrays.fill(this.first, -1);
+        }
+
+        // records are taken up to the first one not written completely
+        void scan() {
+            byte[] frame = new byte[0xff];
+            MacFrame mac = new MacFrame();
+            this.end = HEADER;
+            this.count = 0;
+            this.min = Long.MAX_VALUE;
+            this.max = Long.MIN_VALUE;
+            this.shorts.clear();
+            this.extended.clear();
+            Arrays.fill(this.first, -1);
+            int limit = this.map.capacity();
+            int pos = HEADER;
+            while (pos + CaptureRecord.HEADER <= limit) {
+                int len = this.map.getShort(pos) & 0xffff;
+                int flags = this.map.get(pos + 3) & 0xff;
+                long time = this.map.getLong(pos + 4) / 1000;
+                if (time <= 0 || len > 0xff || (flags & ~CaptureRecord.FLAG_VALID) != 0) break;
+                if (pos + CaptureRecord.HEADER + len > limit) break;
+                for (int i = 0; i < len; i++) frame[i] = this.map.get(pos + CaptureRecord.HEADER + i);
+                this.indexed(pos, time, mac.wrap(frame, 0, len, true));
+                pos += CaptureRecord.HEADER + len;
+            }
+            if (!this.map.isReadOnly()) {
+                // remains of a record written partly are cleared
+                for (int i = pos; i < Math.min(limit, pos + CaptureRecord.HEADER + 0xff); i++) this.map.put(i, (byte)0);
+                this.header();
+            }
+        }
+
+        // append record, false if segment is full
+        boolean append(Capture frame, MacFrame mac) {
+            int size = CaptureRecord.size(frame);
+            if (this.end + size > this.capacity) return false;
+            int pos = this.end;
+            this.map.position(pos);
+            CaptureRecord.encode(frame, this.map);
+            this.indexed(pos, frame.time(), mac.wrap(frame));
+            this.header();
+            return true;
+        }
+
+        private void indexed(int pos, long time, MacFrame mac) {
+            int page = pos / PAGE;
+            if (this.first[page] < 0) {
+                this.first[page] = pos;
+                this.pmin[page] = time;
+                this.pmax[page] = time;
+            } else {
+                this.pmin[page] = Math.min(this.pmin[page], time);
+                this.pmax[page] = Math.max(this.pmax[page], time);
+            }
+            if (mac.hasSource()) this.post(mac.sourceMode(), mac.source(), page);
+            if (mac.hasDestination()) this.post(mac.destinationMode(), mac.destination(), page);
+            this.min = Math.min(this.min, time);
+            this.max = Math.max(this.max, time);
+            this.end = pos + CaptureRecord.HEADER + (this.map.getShort(pos) & 0xffff);
+            this.count++;
+        }
+
+        private void post(int mode, long address, int page) {
+            Postings p;
+            if (mode == MacFrame.MODE_SHORT) {
+                p = this.shorts.get((int)address);
+                if (p == null) this.shorts.put((int)address, p = new Postings());
+            } else {
+                p = this.extended.get(address);
+                if (p == null) this.extended.put(address, p = new Postings());
+            }
+            p.add(page);
+        }
+
+        // pages of an address of any of given modes, merged
+        Postings postings(int modes, long address) {
+            Postings a = (modes & (1 << MacFrame.MODE_SHORT)) != 0 ? this.shorts.get((int)address) : null;
+            Postings b = (modes & (1 << MacFrame.MODE_EXTENDED)) != 0 ? this.extended.get(address) : null;
+            if (a == null) return b;
+            if (b == null) return a;
+            Postings p = new Postings();
+            int i = 0, k = 0;
+            while (i < a.size || k < b.size) {
+                if (k == b.size || (i < a.size && a.pages[i] <= b.pages[k])) {
+                    p.add(a.pages[i++]);
+                } else {
+                    p.add(b.pages[k++]);
+                }
+            }
+            return p;
+        }
+
+        private void header() {
+            this.map.putInt(H_COUNT, this.count);
+            this.map.putInt(H_END, this.end);
+            this.map.putLong(H_MIN, this.min);
+            this.map.putLong(H_MAX, this.max);
+        }
+
+        // full, index is written to file
+        void seal() throws IOException {
+            this.map.putShort(H_SEALED, (short)1);
+            this.sealed = true;
+            this.map.force();
+            this.write();
+        }
+
+        void write() throws IOException {
+            int n = this.first.length;
+            int size = 16 + n * 20;
+            for (Postings p : this.shorts.values()) size += 8 + p.size * 4;
+            for (Postings p : this.extended.values()) size += 12 + p.size * 4;
+            ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC_INDEX).putInt(n).putInt(this.shorts.size()).putInt(this.extended.size());
+            for (int i = 0; i < n; i++) buf.putInt(this.first[i]).putLong(this.pmin[i]).putLong(this.pmax[i]);
+            for (Map.Entry<Integer, Postings> e : this.shorts.entrySet()) {
+                buf.putInt(e.getKey()).putInt(e.getValue().size);
+                for (int i = 0; i < e.getValue().size; i++) buf.putInt(e.getValue().pages[i]);
+            }
+            for (Map.Entry<Long, Postings> e : this.extended.entrySet()) {
+                buf.putLong(e.getKey()).putInt(e.getValue().size);
+                for (int i = 0; i < e.getValue().size; i++) buf.putInt(e.getValue().pages[i]);
+            }
+            buf.flip();
+            File tmp = new File(this.index.getPath() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) ch.write(buf);
+            }
+            Files.move(tmp.toPath(), this.index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // index of file, false if missing or not matching
+        private boolean read() throws IOException {
+            if (!this.index.exists()) return false;
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(this.index.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                if (buf.getInt() != MAGIC_INDEX || buf.getInt() != this.first.length) return false;
+                int s = buf.getInt();
+                int x = buf.getInt();
+                for (int i = 0; i < this.first.length; i++) {
+                    this.first[i] = buf.getInt();
+                    this.pmin[i] = buf.getLong();
+                    this.pmax[i] = buf.getLong();
+                }
+                for (int k = 0; k < s; k++) {
+                    Postings p = new Postings();
+                    this.shorts.put(buf.getInt(), p);
+                    this.postings(buf, p);
+                }
+                for (int k = 0; k < x; k++) {
+                    Postings p = new Postings();
+                    this.extended.put(buf.getLong(), p);
+                    this.postings(buf, p);
+                }
+            } catch (RuntimeException e) {
+                this.shorts.clear();
+                this.extended.clear();
+                Arrays.fill(this.first, -1);
+                return false;
+            }
+            return true;
+        }
+
+        private void postings(ByteBuffer buf, Postings p) {
+            p.size = buf.getInt();
+            p.pages = new int[Math.max(1, p.size)];
+            for (int i = 0; i < p.size; i++) p.pages[i] = buf.getInt();
+        }
+
+        // matching records of a page
+        // modes of addresses to be matched as bits (1 << mode), none to match any frame
+        long page(int page, long from, long to, int modes, long address, byte[] frame, Capture capture,
+                MacFrame mac, CaptureSink out) throws IOException {
+            if (this.first[page] < 0 || this.pmax[page] < from || this.pmin[page] > to) return 0;
+            long n = 0;
+            int pos = this.first[page];
+            int limit = Math.min(this.end, (page + 1) * PAGE);
+            while (pos < limit) {
+                CaptureRecord.decode(this.map, pos, capture, frame);
+                pos += CaptureRecord.HEADER + capture.length();
+                if (capture.time() < from || capture.time() > to) continue;
+                if (modes != 0) {
+                    mac.wrap(capture);
+                    boolean src = mac.hasSource() && (modes & (1 << mac.sourceMode())) != 0 && mac.source() == address;
+                    boolean dst = mac.hasDestination() && (modes & (1 << mac.destinationMode())) != 0 && mac.destination() == address;
+                    if (!src && !dst) continue;
+                }
+                out.write(capture);
+                n++;
+            }
+            return n;
+        }
+
+        void close() throws IOException {
+            if (this.channel != null) {
+                if (!this.map.isReadOnly()) this.map.force();
+                this.channel.close();
+                this.channel = null;
+            }
+            this.map = null;
+            this.first = null;
+            this.pmin = null;
+            this.pmax = null;
+            this.shorts.clear();
+            this.extended.clear();
+            this.loaded = false;
+        }
+
+        void delete() throws IOException {
+            this.close();
+            Files.deleteIfExists(this.file.toPath());
+            Files.deleteIfExists(this.index.toPath());
+        }
+
+    }
+
+    private final File dir;
+    private final int capacity; // [byte] per segment
+    private final int retain;   // segments kept, 0 for all
+    private final boolean readonly;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final MacFrame mac = new MacFrame();
+    private Segment active = null;
+    private long written = 0;
+    private long deleted = 0;
+
+    // store in given directory for queries only, may be written by another process meanwhile
+    public CaptureStore(File dir) throws IOException {
+        this(dir, 0, 0, true);
+    }
+
+    // store in given directory, created if missing, segments of given size are kept up to a given number
+    public CaptureStore(File dir, long capacity, int retain) throws IOException {
+        this(dir, capacity, retain, false);
+    }
+
+    private CaptureStore(File dir, long capacity, int retain, boolean readonly) throws IOException {
+        this.dir = dir;
+        this.capacity = (int)Math.max(2 * PAGE, Math.min(capacity, Integer.MAX_VALUE - PAGE) / PAGE * PAGE);
+        this.retain = Math.max(0, retain);
+        this.readonly = readonly;
+        if (readonly && !dir.isDirectory()) throw new IOException("no such directory: " + dir);
+        if (!readonly) Files.createDirectories(dir.toPath());
+        File[] files = dir.listFiles();
+        List<Long> ids = new ArrayList<Long>();
+        for (File f : files != null ? files : new File[0]) {
+            String name = f.getName();
+            if (name.matches("[0-9]{16}\\.seg")) ids.add(Long.parseLong(name.substring(0, 16)));
+        }
+        ids.sort(null);
+        for (long id : ids) {
+            Segment s = new Segment(dir, id, this.capacity);
+            s.peek();
+            this.segments.add(s);
+        }
+        // segment written before is continued, its index is rebuilt
+        if (!readonly && !this.segments.isEmpty()) {
+            Segment last = this.segments.get(this.segments.size() - 1);
+            if (!last.sealed && last.file.length() == this.capacity) {
+                last.load(true);
+                this.active = last;
+            }
+        }
+    }
+
+    public synchronized void write(Capture frame) throws IOException {
+        if (this.readonly) throw new IOException("store is read-only: " + this.dir);
+        if (this.active == null || !this.active.append(frame, this.mac)) {
+            if (this.active != null) {
+                this.active.seal();
+                this.active.close();
+            }
+            long id = this.segments.isEmpty() ? 0 : this.segments.get(this.segments.size() - 1).id + 1;
+            this.active = new Segment(this.dir, id, this.capacity);
+            this.active.create();
+            this.segments.add(this.active);
+            this.retention();
+            if (!this.active.append(frame, this.mac)) throw new IOException("frame too large for segment");
+        }
+        this.written++;
+    }
+
+    // whole segments are deleted, oldest first
+    private void retention() throws IOException {
+        while (this.retain > 0 && this.segments.size() > this.retain) {
+            this.segments.remove(0).delete();
+            this.deleted++;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (this.active != null) this.active.map.force();
+    }
+
+    public synchronized void close() throws IOException {
+        for (Segment s : this.segments) s.close();
+        this.active = null;
+    }
+
+    // frames captured within given time range [us], from or to given address if mode is not none,
+    // only pages indexed for the time range and address are read
+    public long query(long from, long to, int mode, long address, CaptureSink out) throws IOException {
+        return this.lookup(from, to, mode == MacFrame.MODE_NONE ? 0 : 1 << mode, address, out);
+    }
+
+    // frames from or to given short or extended address
+    public long query(long from, long to, long address, CaptureSink out) throws IOException {
+        int modes = 1 << MacFrame.MODE_EXTENDED;
+        if (address >= 0 && address <= 0xffff) modes |= 1 << MacFrame.MODE_SHORT;
+        return this.lookup(from, to, modes, address, out);
+    }
+
+    private synchronized long lookup(long from, long to, int modes, long address, CaptureSink out) throws IOException {
+        byte[] frame = new byte[0xff];
+        Capture capture = new Capture();
+        MacFrame mac = new MacFrame();
+        long n = 0;
+        for (Segment s : this.segments) {
+            if (s.sealed && (s.count == 0 || s.max < from || s.min > to)) continue;
+            boolean opened = !s.loaded;
+            s.load(false);
+            try {
+                if (modes == 0) {
+                    for (int p = 0; p < s.first.length; p++) {
+                        n += s.page(p, from, to, modes, address, frame, capture, mac, out);
+                    }
+                } else {
+                    Postings postings = s.postings(modes, address);
+                    for (int i = 0; postings != null && i < postings.size; i++) {
+                        n += s.page(postings.pages[i], from, to, modes, address, frame, capture, mac, out);
+                    }
+                }
+            } finally {
+                if (opened) s.close();
+            }
+        }
+        return n;
+    }
+
+    // number of segments, including the one written
+    public synchronized int segments() {
+        return this.segments.size();
+    }
+
+    public synchronized String toString() {
+        long records = 0;
+        for (Segment s : this.segments) records += s.count;
+        return "{store={dir=" + this.dir + ",segments=" + this.segments.size() + ",records=" + records +
+               ",written=" + this.written + ",deleted=" + this.deleted + "}}";
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+// hops through channels, staying longer on channels showing traffic
+public class ChannelScanner extends Thread implements CaptureSink {
+
+    // frame rate [1/s] at which dwell time is halfway between minimum and maximum
+    private static final double RATE_HALF = 10.0;
+
+    // weight of the latest visit for the rate estimate
+    private static final double SMOOTHING = 0.3;
+
+    private final Device device;
+    private final int[] channels; // page in upper byte, channel in lower byte
+    private final long min;       // [ms] dwell time of quiet channels
+    private final long max;       // [ms] dwell time of busy channels
+
+    // statistics per channel, indexed like channels
+    private final long[] frames;
+    private final long[] bytes;
+    private final long[] bad;
+    private final long[] listened; // [ms]
+    private final long[] visits;
+    private final double[] rate;   // [1/s] smoothed over visits
+
+    private long switching = 0;    // [ms] spent for switching channels
+    private long foreign = 0;      // frames captured on channels not scanned
+    private volatile int current = -1;
+    private volatile boolean running = true;
+
+    public ChannelScanner(Device device, int[] channels, long min, long max) {
+        super("scanner");
+        this.setDaemon(true);
+        this.device = device;
+        this.channels = channels;
+        this.min = min;
+        this.max = Math.max(min, max);
+        this.frames = new long[channels.length];
+        this.bytes = new long[channels.length];
+        this.bad = new long[channels.length];
+        this.listened = new long[channels.length];
+        this.visits = new long[channels.length];
+        this.rate = new double[channels.length];
+    }
+
+    // parse channels like "11-26", "15 20 25" or "1:0-10" for pages other than 0,
+    // throws IllegalArgumentException if malformed or not supported (page 0: 0-26, pages 1 and 2: 0-10)
+    public static int[] parse(List<String> specs) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (String spec : specs) {
+            int page = 0;
+            int colon = spec.indexOf(':');
+            if (colon >= 0) {
+                page = Integer.parseInt(spec.substring(0, colon));
+                spec = spec.substring(colon + 1);
+            }
+            int dash = spec.indexOf('-');
+            int from = Integer.parseInt(dash >= 0 ? spec.substring(0, dash) : spec);
+            int to = dash >= 0 ? Integer.parseInt(spec.substring(dash + 1)) : from;
+            int last = page == 0 ? 26 : (page == 1 || page == 2) ? 10 : -1;
+            if (from < 0 || to > last || from > to) {
+                throw new IllegalArgumentException("channels " + from + "-" + to + " on page " + page);
+            }
+            for (int ch = from; ch <= to; ch++) list.add((page << 8) | ch);
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+        return result;
+    }
+
+    // channel listened to at the moment, -1 while switching
+    public int current() {
+        return this.current;
+    }
+
+    // dwell time of a channel from its smoothed frame rate
+    private long dwell(int i) {
+        double r = this.rate[i];
+        return this.min + (long)((this.max - this.min) * (r / (r + RATE_HALF)));
+    }
+
+    public void run() {
+        while (this.running) {
+            boolean usable = false;
+            for (int i = 0; i < this.channels.length && this.running; i++) {
+                int ch = this.channels[i] & 0xff;
+                int page = this.channels[i] >> 8;
+                long t0 = System.currentTimeMillis();
+                this.current = -1;
+                boolean ok;
+                try {
+                    byte[] reply = this.device.switching(ch, page).get();
+                    ok = (reply.length > 0) && ((reply[0] & 0xff) == ch);
+                } catch (InterruptedException | ExecutionException e) {
+                    ok = false;
+                }
+                long t1 = System.currentTimeMillis();
+                synchronized (this) {
+                    this.switching += t1 - t0;
+                }
+                if (!ok) {
+                    // channel refused or device not answering, wait before trying the next one
+                    try {
+                        Thread.sleep(this.min);
+                    } catch (InterruptedException e) {
+                        this.running = false;
+                    }
+                    continue;
+                }
+                usable = true;
+                long before;
+                synchronized (this) {
+                    before = this.frames[i];
+                }
+                this.current = this.channels[i];
+                try {
+                    Thread.sleep(this.dwell(i));
+                } catch (InterruptedException e) {
+                    this.running = false;
+                }
+                long t2 = System.currentTimeMillis();
+                synchronized (this) {
+                    long n = this.frames[i] - before;
+                    this.listened[i] += t2 - t1;
+                    this.visits[i]++;
+                    double r = (t2 > t1) ? n * 1000.0 / (t2 - t1) : 0;
+                    this.rate[i] = this.visits[i] == 1 ? r : SMOOTHING * r + (1 - SMOOTHING) * this.rate[i];
+                }
+            }
+            System.err.println(this);
+            if (!usable && this.running) {
+                System.err.println("scanning stopped, no channel could be set");
+                this.running = false;
+            }
+        }
+    }
+
+    // frames are accounted to the channel given in their header, i.e. the channel they were captured on
+    public synchronized void write(Capture frame) throws IOException {
+        for (int i = 0; i < this.channels.length; i++) {
+            if ((this.channels[i] & 0xff) == frame.channel()) {
+                this.frames[i]++;
+                this.bytes[i] += frame.length();
+                if (!frame.valid()) this.bad[i]++;
+                return;
+            }
+        }
+        this.foreign++;
+    }
+
+    public void flush() throws IOException {}
+
+    public void close() throws IOException {
+        this.running = false;
+        this.interrupt();
+    }
+
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("{scan={");
+        long total = this.switching;
+        for (long l : this.listened) total += l;
+        sb.append("switching=").append(total > 0 ? this.switching * 100 / total : 0).append("%");
+        sb.append(",foreign=").append(this.foreign);
+        for (int i = 0; i < this.channels.length; i++) {
+            double occupancy = this.listened[i] > 0 ? this.frames[i] * 1000.0 / this.listened[i] : 0;
+            sb.append(",").append(this.channels[i] & 0xff);
+            if ((this.channels[i] >> 8) != 0) sb.append(":").append(this.channels[i] >> 8);
+            sb.append("={frames=").append(this.frames[i])
+              .append(",bytes=").append(this.bytes[i])
+              .append(",bad=").append(this.bad[i])
+              .append(",listened=").append(this.listened[i])
+              .append(",rate=").append(String.format(Locale.ROOT, "%.1f", occupancy))
+              .append(",dwell=").append(this.dwell(i)).append("}");
+        }
+        return sb.append("}}").toString();
+    }
+
+}
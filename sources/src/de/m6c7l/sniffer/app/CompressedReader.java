@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+// reads frames compressed in blocks (see CompressedWriter), one block at a time,
+// the same capture is filled by every frame read, nothing is allocated per frame
+public class CompressedReader {
+
+    private final ReadableByteChannel in;
+    private final ByteBuffer head = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer packed = ByteBuffer.allocate(BlockCompressor.bound(CompressedWriter.BLOCK + 4 * 10));
+    private final byte[] raw = new byte[CompressedWriter.BLOCK + 4 * 10];
+    private final byte[] frame = new byte[0xff];
+    private final Capture capture = new Capture();
+
+    private final byte[] dict = new byte[CompressedWriter.ENTRIES * CompressedWriter.ENTRY_MAX];
+    private final int[] sizes = new int[CompressedWriter.ENTRIES];
+    private final int[] sequences = new int[CompressedWriter.ENTRIES];
+    private int entries = 0;
+
+    // columns of a block
+    private static final int FRAMES = 0;
+    private static final int CHANNELS = 1;
+    private static final int HEADERS = 2;
+    private static final int PAYLOAD = 3;
+
+    // cursors of columns within current block, their ends, and frames left in block
+    private final int[] at = new int[4];
+    private final int[] end = new int[4];
+    private int left = 0;
+
+    private int channel;
+    private int run;
+    private long stamp;
+    private long time;
+    private long timing;
+
+    private boolean started = false;
+    private long records = 0;
+
+    public CompressedReader(ReadableByteChannel in) {
+        this.in = in;
+    }
+
+    // file starts like written by CompressedWriter?
+    public static boolean compressed(File file) throws IOException {
+        byte[] b = new byte[CompressedWriter.MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            int n = 0;
+            int r;
+            while (n < b.length && (r = in.read(b, n, b.length - n)) > 0) n += r;
+            if (n < b.length) return false;
+        }
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] != CompressedWriter.MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    // number of frames read
+    public long records() {
+        return this.records;
+    }
+
+    // next frame, valid until the next call, or null at end of stream
+    public Capture next() throws IOException {
+        if (!this.started) {
+            this.started = true;
+            ByteBuffer b = ByteBuffer.allocate(CompressedWriter.MAGIC.length + 1);
+            if (!this.read(b)) throw new EOFException("empty stream");
+            for (int i = 0; i < CompressedWriter.MAGIC.length; i++) {
+                if (b.get(i) != CompressedWriter.MAGIC[i]) throw new IOException("not a compressed capture");
+            }
+            if (b.get(CompressedWriter.MAGIC.length) != CompressedWriter.VERSION) throw new IOException("unsupported version");
+        }
+        while (this.left == 0) {
+            if (!this.block()) return null;
+        }
+        this.left--;
+
+        int flags = this.get(FRAMES);
+        int len = (int)this.varint(FRAMES);
+        this.stamp += this.zigzag(FRAMES);
+        this.time += this.zigzag(FRAMES);
+        long dt = this.zigzag(FRAMES);
+        this.timing += dt;
+        long delta = (flags & CompressedWriter.FLAG_DELTA) != 0 ? dt : this.varint(FRAMES);
+        this.check(len <= 0xff);
+
+        if (this.run == 0) {
+            this.channel = this.get(CHANNELS);
+            this.run = (int)this.varint(CHANNELS);
+        }
+        this.run--;
+
+        // mac header from dictionary, new ones added
+        int n = 0;
+        if ((flags & CompressedWriter.FLAG_HEADER) != 0) {
+            int e = (int)this.varint(HEADERS) - 1;
+            if (e < 0) {
+                this.check(this.entries < CompressedWriter.ENTRIES);
+                e = this.entries++;
+                int size = this.get(HEADERS);
+                this.check(size >= 2 && size <= CompressedWriter.ENTRY_MAX);
+                this.copy(HEADERS, this.dict, e * CompressedWriter.ENTRY_MAX, size);
+                this.sizes[e] = size;
+                this.sequences[e] = 0;
+            }
+            this.check(e < this.entries);
+            int base = e * CompressedWriter.ENTRY_MAX;
+            this.frame[n++] = this.dict[base];
+            this.frame[n++] = this.dict[base + 1];
+            if ((flags & CompressedWriter.FLAG_SEQUENCE) != 0) {
+                this.sequences[e] = (this.sequences[e] + this.get(HEADERS)) & 0xff;
+                this.frame[n++] = (byte)this.sequences[e];
+            }
+            this.check(n + this.sizes[e] - 2 <= len);
+            System.arraycopy(this.dict, base + 2, this.frame, n, this.sizes[e] - 2);
+            n += this.sizes[e] - 2;
+        }
+
+        // remaining octets, fcs calculated if left out
+        boolean fcs = (flags & CompressedWriter.FLAG_FCS) != 0;
+        int rest = len - n - (fcs ? 2 : 0);
+        this.check(rest >= 0);
+        this.copy(PAYLOAD, this.frame, n, rest);
+        if (fcs) {
+            int crc = FrameUtility.crc(this.frame, 0, len - 2);
+            this.frame[len - 2] = (byte)crc;
+            this.frame[len - 1] = (byte)(crc >>> 8);
+        }
+
+        this.capture.set(this.channel, this.stamp, this.time, this.timing, delta, this.frame, 0, len,
+                (flags & CompressedWriter.FLAG_VALID) != 0);
+        this.records++;
+        return this.capture;
+    }
+
+    // next block read and decompressed, false at end of stream
+    private boolean block() throws IOException {
+        this.head.clear();
+        if (!this.read(this.head)) return false;
+        int len = this.head.getInt(0);
+        int size = this.head.getInt(4);
+        this.check(len >= 0 && len <= this.raw.length && size >= 0 && size <= this.packed.capacity());
+        if (size == 0) {
+            // stored as is
+            if (!this.read(ByteBuffer.wrap(this.raw, 0, len))) throw new EOFException("truncated block");
+        } else {
+            this.packed.clear().limit(size);
+            if (!this.read(this.packed)) throw new EOFException("truncated block");
+            this.check(BlockCompressor.decompress(this.packed.array(), 0, size, this.raw, 0, this.raw.length) == len);
+        }
+        // number of frames and sizes of columns, payload takes the rest
+        this.at[FRAMES] = 0;
+        this.end[FRAMES] = len;
+        long count = this.varint(FRAMES);
+        long f = this.varint(FRAMES);
+        long c = this.varint(FRAMES);
+        long h = this.varint(FRAMES);
+        int start = this.at[FRAMES];
+        this.check(count > 0 && count <= CompressedWriter.BLOCK && start + f + c + h <= len);
+        this.left = (int)count;
+        this.at[FRAMES] = start;
+        this.end[FRAMES] = this.at[CHANNELS] = start + (int)f;
+        this.end[CHANNELS] = this.at[HEADERS] = this.end[FRAMES] + (int)c;
+        this.end[HEADERS] = this.at[PAYLOAD] = this.end[CHANNELS] + (int)h;
+        this.end[PAYLOAD] = len;
+        this.entries = 0;
+        this.run = 0;
+        this.stamp = this.time = this.timing = 0;
+        return true;
+    }
+
+    // unsigned byte of given column
+    private int get(int column) throws IOException {
+        this.check(this.at[column] < this.end[column]);
+        return this.raw[this.at[column]++] & 0xff;
+    }
+
+    private void copy(int column, byte[] dst, int off, int len) throws IOException {
+        this.check(this.at[column] + len <= this.end[column]);
+        System.arraycopy(this.raw, this.at[column], dst, off, len);
+        this.at[column] += len;
+    }
+
+    // unsigned varint of given column
+    private long varint(int column) throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            this.check(shift < 64);
+            int b = this.get(column);
+            v |= (long)(b & 0x7f) << shift;
+            if (b < 0x80) return v;
+        }
+    }
+
+    private long zigzag(int column) throws IOException {
+        long v = this.varint(column);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private void check(boolean ok) throws IOException {
+        if (!ok) throw new IOException("corrupt block");
+    }
+
+    // buffer filled completely, false if stream ended before any byte
+    private boolean read(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (this.in.read(b) < 0) {
+                if (b.position() == 0) return false;
+                throw new EOFException("truncated block");
+            }
+        }
+        return true;
+    }
+
+}
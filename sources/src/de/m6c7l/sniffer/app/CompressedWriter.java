@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// writes captured frames compressed in blocks, to be read by CompressedReader:
+//   magic "BSCZ" and version (1), then blocks of raw length (4), compressed length (4, 0 if stored) and bytes,
+//   a block holds the number of frames and the sizes of three columns (varints) followed by the columns:
+//     frames: flags (1), length (varint), deltas of host stamp, time and device timer (zigzag varints), delta (varint)
+//     channels: channel (1) and number of frames in a row (varint)
+//     headers: index of mac header in dictionary (varint, 0 for new one followed by size and bytes), sequence delta (1)
+//   then the remaining octets of all frames, all of it compressed by BlockCompressor,
+// deltas and dictionary start over in every block, so memory is bounded by the size of a block
+public class CompressedWriter implements CaptureSink {
+
+    final static byte[] MAGIC = { 'B', 'S', 'C', 'Z' };
+    final static int VERSION = 1;
+
+    // raw bytes of a block at most
+    final static int BLOCK = 1 << 16;
+
+    // mac headers of a block at most, and bytes of one without sequence number
+    final static int ENTRIES = 256;
+    final static int ENTRY_MAX = 2 + 2 + 8 + 2 + 8;
+
+    // flags of frames
+    final static int FLAG_VALID = 0x01;    // fcs is valid
+    final static int FLAG_FCS = 0x02;      // fcs left out, calculated again when read
+    final static int FLAG_DELTA = 0x04;    // delta left out, equal to difference of device timer
+    final static int FLAG_HEADER = 0x08;   // mac header given by dictionary
+    final static int FLAG_SEQUENCE = 0x10; // sequence number following mac header of dictionary
+
+    // frame in all columns at most
+    private static final int RECORD_MAX = (1 + 2 + 4 * 10) + (1 + 10) + (2 + 1 + ENTRY_MAX + 1) + 0xff;
+
+    // column of a block
+    private static class Column {
+
+        final byte[] buf = new byte[BLOCK];
+        int pos = 0;
+
+        void put(int b) {
+            this.buf[this.pos++] = (byte)b;
+        }
+
+        void put(byte[] b, int off, int len) {
+            System.arraycopy(b, off, this.buf, this.pos, len);
+            this.pos += len;
+        }
+
+        void varint(long v) {
+            this.pos = CompressedWriter.varint(v, this.buf, this.pos);
+        }
+
+        void zigzag(long v) {
+            this.varint((v << 1) ^ (v >> 63));
+        }
+
+    }
+
+    private final WritableByteChannel out;
+    private final BlockCompressor compressor = new BlockCompressor();
+    private final MacFrame mac = new MacFrame();
+
+    private final Column frames = new Column();
+    private final Column channels = new Column();
+    private final Column headers = new Column();
+    private final Column payload = new Column();
+    private final byte[] raw = new byte[BLOCK + 4 * 10];
+    private final ByteBuffer packed = ByteBuffer.allocate(8 + BlockCompressor.bound(this.raw.length)).order(ByteOrder.LITTLE_ENDIAN);
+
+    // dictionary of mac headers without sequence number, by open addressing
+    private final byte[] dict = new byte[ENTRIES * ENTRY_MAX];
+    private final int[] sizes = new int[ENTRIES];
+    private final int[] sequences = new int[ENTRIES]; // last one of a header
+    private final int[] slots = new int[ENTRIES * 2]; // index + 1, 0 if free
+    private final byte[] key = new byte[ENTRY_MAX];
+    private int entries = 0;
+
+    // state of current block
+    private int count = 0;
+    private int channel = -1;
+    private int run = 0;
+    private long stamp = 0;
+    private long time = 0;
+    private long timing = 0;
+
+    // flush policy: after a number of frames and/or after some milliseconds
+    private final int limit;
+    private final long interval;
+
+    private boolean started = false;
+    private long flushed = System.currentTimeMillis();
+
+    // buffered writing to stdout
+    public CompressedWriter(int frames, long interval) {
+        this(new FileOutputStream(FileDescriptor.out).getChannel(), frames, interval);
+    }
+
+    public CompressedWriter(WritableByteChannel out, int frames, long interval) {
+        this.out = out;
+        this.limit = Math.max(1, frames);
+        this.interval = interval;
+        if (interval > 0) {
+            // flush frames left in block if capturing goes quiet
+            Thread t = new Thread() {
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(CompressedWriter.this.interval);
+                            CompressedWriter.this.flush(false);
+                        } catch (InterruptedException | IOException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public synchronized void write(Capture frame) throws IOException {
+        if (this.size() + RECORD_MAX > BLOCK) this.drain();
+        byte[] b = frame.buffer();
+        int off = frame.offset();
+        int len = frame.length();
+
+        // mac header up to addressing fields, by dictionary
+        int entry = -1;
+        int seq = MacFrame.ABSENT;
+        int end = 0;
+        if (this.mac.wrap(b, off, len, frame.valid()).header() != MacFrame.ABSENT) {
+            seq = this.mac.sequence();
+            end = this.mac.header();
+            int n = 0;
+            this.key[n++] = b[off];
+            this.key[n++] = b[off + 1];
+            for (int i = seq == MacFrame.ABSENT ? 2 : 3; i < end; i++) this.key[n++] = b[off + i];
+            entry = this.lookup(n);
+            if (entry < 0 && this.entries == ENTRIES) {
+                this.drain();
+                entry = this.lookup(n);
+            }
+            if (entry < 0) {
+                entry = this.entries++;
+                System.arraycopy(this.key, 0, this.dict, entry * ENTRY_MAX, n);
+                this.sizes[entry] = n;
+                this.sequences[entry] = 0;
+                this.insert(entry);
+                this.headers.varint(0);
+                this.headers.put(n);
+                this.headers.put(this.key, 0, n);
+            } else {
+                this.headers.varint(entry + 1);
+            }
+            if (seq != MacFrame.ABSENT) {
+                this.headers.put(seq - this.sequences[entry]);
+                this.sequences[entry] = seq;
+            }
+        }
+
+        boolean fcs = FrameUtility.verify(b, off, len);
+        long dt = frame.timing() - this.timing;
+        int flags = (frame.valid() ? FLAG_VALID : 0) | (fcs ? FLAG_FCS : 0) | (frame.delta() == dt ? FLAG_DELTA : 0) |
+                    (entry >= 0 ? FLAG_HEADER : 0) | (seq != MacFrame.ABSENT ? FLAG_SEQUENCE : 0);
+        this.frames.put(flags);
+        this.frames.varint(len);
+        this.frames.zigzag(frame.stamp() - this.stamp);
+        this.frames.zigzag(frame.time() - this.time);
+        this.frames.zigzag(dt);
+        if (frame.delta() != dt) this.frames.varint(frame.delta());
+        this.stamp = frame.stamp();
+        this.time = frame.time();
+        this.timing = frame.timing();
+
+        // channel by runs
+        if (frame.channel() != this.channel) {
+            this.channel();
+            this.channel = frame.channel();
+        }
+        this.run++;
+
+        this.payload.put(b, off + end, len - end - (fcs ? 2 : 0));
+        this.count++;
+        if (this.count >= this.limit) {
+            this.drain();
+        } else if (this.interval > 0) {
+            this.flush(false);
+        }
+    }
+
+    public void flush() throws IOException {
+        this.flush(true);
+    }
+
+    public synchronized void flush(boolean force) throws IOException {
+        if (force || System.currentTimeMillis() - this.flushed >= this.interval) {
+            this.drain();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        this.drain();
+        this.out.close();
+    }
+
+    private int size() {
+        return this.frames.pos + this.channels.pos + this.headers.pos + this.payload.pos;
+    }
+
+    private void channel() {
+        if (this.run == 0) return;
+        this.channels.put(this.channel);
+        this.channels.varint(this.run);
+        this.run = 0;
+    }
+
+    private int lookup(int n) {
+        int h = this.hash(n);
+        while (this.slots[h] != 0) {
+            int e = this.slots[h] - 1;
+            if (this.sizes[e] == n && this.equal(e, n)) return e;
+            h = (h + 1) % this.slots.length;
+        }
+        return -1;
+    }
+
+    private void insert(int e) {
+        int h = this.hash(this.sizes[e]);
+        while (this.slots[h] != 0) h = (h + 1) % this.slots.length;
+        this.slots[h] = e + 1;
+    }
+
+    private boolean equal(int e, int n) {
+        int base = e * ENTRY_MAX;
+        for (int i = 0; i < n; i++) {
+            if (this.dict[base + i] != this.key[i]) return false;
+        }
+        return true;
+    }
+
+    private int hash(int n) {
+        int h = n;
+        for (int i = 0; i < n; i++) h = h * 31 + this.key[i];
+        return (h & 0x7fffffff) % this.slots.length;
+    }
+
+    // frames of block compressed and written, state reset for next block
+    private void drain() throws IOException {
+        this.flushed = System.currentTimeMillis();
+        if (this.count == 0 && this.started) return;
+        this.channel();
+        this.packed.clear();
+        if (!this.started) {
+            this.started = true;
+            this.packed.put(MAGIC);
+            this.packed.put((byte)VERSION);
+        }
+        if (this.count > 0) {
+            int n = 0;
+            n = varint(this.count, this.raw, n);
+            n = varint(this.frames.pos, this.raw, n);
+            n = varint(this.channels.pos, this.raw, n);
+            n = varint(this.headers.pos, this.raw, n);
+            n = this.append(this.frames, n);
+            n = this.append(this.channels, n);
+            n = this.append(this.headers, n);
+            n = this.append(this.payload, n);
+            int at = this.packed.position();
+            int len = this.compressor.compress(this.raw, 0, n, this.packed.array(), at + 8);
+            this.packed.putInt(n);
+            if (len < n) {
+                this.packed.putInt(len);
+                this.packed.position(at + 8 + len);
+            } else {
+                // stored as is
+                this.packed.putInt(0);
+                this.packed.put(this.raw, 0, n);
+            }
+        }
+        this.packed.flip();
+        while (this.packed.hasRemaining()) {
+            this.out.write(this.packed);
+        }
+        this.count = 0;
+        this.channel = -1;
+        this.stamp = this.time = this.timing = 0;
+        this.entries = 0;
+        Arrays.fill(this.slots, 0);
+    }
+
+    private int append(Column c, int pos) {
+        System.arraycopy(c.buf, 0, this.raw, pos, c.pos);
+        pos += c.pos;
+        c.pos = 0;
+        return pos;
+    }
+
+    static int varint(long v, byte[] b, int pos) {
+        while ((v & ~0x7fL) != 0) {
+            b[pos++] = (byte)(v | 0x80);
+            v >>>= 7;
+        }
+        b[pos++] = (byte)v;
+        return pos;
+    }
+
+}
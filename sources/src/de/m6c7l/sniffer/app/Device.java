@@ -5,21 +5,22 @@
 
 package de.m6c7l.sniffer.app;
 
-import gnu.io.CommPort;
-import gnu.io.CommPortIdentifier;
-import gnu.io.NoSuchPortException;
-import gnu.io.PortInUseException;
-import gnu.io.SerialPort;
-import gnu.io.UnsupportedCommOperationException;
-
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
-import java.util.Arrays;
-import java.util.TooManyListenersException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 public class Device implements FrameListener {
 
@@ -66,26 +67,105 @@ public class Device implements FrameListener {
 
     // timeframe to be less than 16 s due to 3 bytes only for timing [us] @ RZ
     final private static int  PRECISION_TIMEFRAME = 10; // [s]
-    final private static long PRECISION_BASE_uS = (int)Math.log10(PRECISION_TIMEFRAME) + 6;
+    final static int PRECISION_BASE_uS = (int)Math.log10(PRECISION_TIMEFRAME) + 6;
     final private static long PRECISION_FACTOR_uS = (int)Math.pow(10, PRECISION_BASE_uS + 1);
 
-    private SerialPort serial;
+    // time to wait for replies [ms]
+    final private static long TIMEOUT = 250;
+    final private static long TIMEOUT_RESET = 500;
+
+    // fails commands not answered in time
+    final private static ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "timeout");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private Transport transport;
     
     private PortReader poread;
-    private PipeReader piread;
-    private Type type;
+    private FramePipeline pipeline = new FramePipeline();
+    private Metrics metrics = null;
+    private boolean threaded = false;
+    private volatile CaptureFilter filter = null;
+    private volatile Type type;
     
-    private Integer channel;
+    private volatile Integer channel;
     private boolean enabled = false;
-    private InputStream poin;
-    private OutputStream poout;
     
-    private byte[] response;
+    private List<CaptureSink> sinks = new ArrayList<CaptureSink>();
+    private Capture capture = new Capture();
+
+    // pending commands by id of their replies
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Queue<CompletableFuture<byte[]>>[] replies = new Queue[256];
+    private volatile DeviceClock clock = new DeviceClock(32);
     private long lasttiming = 0;
     private long laststamp = 0;
+
+    // captured frames are queued for processing, replies are handled by the reader of the port right away,
+    // so commands are answered even if processing falls behind
+    private final FrameListener router = new FrameListener() {
+        public void receive(byte id, byte[] frame) {
+            if (id == DATA_CAPTURED) {
+                Device.this.pipeline.receive(id, frame);
+            } else {
+                Device.this.receive(id, frame);
+            }
+        }
+    };
     
     public Device() {
         super();
+        for (int i = 0; i < this.replies.length; i++) {
+            this.replies[i] = new ConcurrentLinkedQueue<CompletableFuture<byte[]>>();
+        }
+    }
+
+    // add a destination for captured frames
+    public void addSink(CaptureSink sink) {
+        this.sinks.add(sink);
+    }
+
+    public void removeSink(CaptureSink sink) {
+        this.sinks.remove(sink);
+    }
+
+    // write captured frames still buffered
+    public void flush() throws IOException {
+        for (CaptureSink cs : this.sinks) {
+            cs.flush();
+        }
+    }
+
+    // frames not matching are dropped before any output, null to pass all
+    public void filter(CaptureFilter filter) {
+        this.filter = filter;
+    }
+
+    public CaptureFilter filter() {
+        return this.filter;
+    }
+
+    // read port by a thread blocking on reads even if the transport signals bytes received, before connecting
+    public void threaded(boolean threaded) {
+        this.threaded = threaded;
+    }
+
+    // set counters to be updated, before connecting
+    public void metrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // set ring between reader of port and processing of frames, before connecting
+    public void pipeline(FramePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public FramePipeline pipeline() {
+        return this.pipeline;
     }
 
     // is device in capturing mode?
@@ -96,33 +176,24 @@ public class Device implements FrameListener {
     // perform data frame content processing, called by Reader.process()
     public void receive(byte id, byte[] frame) {
         
-        this.response = frame;
-        
         if (id == DATA_CAPTURED) {
             
             long stamp = System.currentTimeMillis();
+            long host = this.clock.host();
+            long origin = this.poread != null ? this.pipeline.origin() : System.nanoTime();
             
-            // header of data frame content
-            byte[] hdr = Arrays.copyOfRange(frame, 0, 8);
-
-            // get channel
-            int rxch = Integer.valueOf(FrameUtility.hex(new byte[] {hdr[5]}).trim(), 16);
-
-            // pipe channel
-            System.out.print(String.format("%2d ", rxch));
-            
-            // pipe timestamp [ms] of hosts clock
-            System.out.print(String.format("%13d ", stamp));  
+            // header of data frame content (first 8 bytes), channel is kept in 6th byte
+            int rxch = frame[5] & 0xff;
 
             // extract timing [us] of capturing device
             long timing = 0;
             if (type == Type.DE) { 
                 for (int i=0; i<4; i++) { // 4 bytes for DE devices
-                    timing += ((long)(hdr[i] & 0xff) << (8*i));
+                    timing += ((long)(frame[i] & 0xff) << (8*i));
                 }
             } else if (type == Type.RZ) { 
                 for (int i=0; i<3; i++) { // 3 bytes for RZ devices
-                    timing += ((long)(hdr[i + 1] & 0xff) << (8*i));
+                    timing += ((long)(frame[i + 1] & 0xff) << (8*i));
                 }                
             }
                         
@@ -138,28 +209,24 @@ public class Device implements FrameListener {
                 dt = (timing > lasttiming ? timing - lasttiming : dt - lasttiming + timing + 1) % PRECISION_FACTOR_uS;                
             }
 
-            // high precision delta time [us]
-            System.out.print(String.format("%" + PRECISION_BASE_uS + "d ", dt));                                            
-
             // keep track of timing and timestamp for estimation of deltas
             lasttiming = timing; 
             laststamp = stamp;
             
-            // payload of data frame content (its the 802.15.4 frame except the fcs)
-            byte[] cnt = Arrays.copyOfRange(frame, 8, frame.length - 2); 
-            System.out.print(FrameUtility.hex(cnt));
-
-            // fcs of 802.15.4 frame
-            byte[] fcs = Arrays.copyOfRange(frame, frame.length - 2, frame.length); // fcs
-            System.out.print(FrameUtility.hex(fcs).trim());
-
-            // check fcs (16-bit crc-ccitt, bytes were received in little endian)
-            if (!Arrays.equals(FrameUtility.fcs(cnt), fcs)) {
-                // bad fcs
-                System.out.print(" *");                  
-            }            
-            
-            System.out.print(Device.LF);
+            // check fcs of 802.15.4 frame following the header (16-bit crc-ccitt, bytes were received in little endian)
+            boolean valid = FrameUtility.verify(frame, 8, frame.length - 8);
+
+            // pipe channel, timestamp [ms] of hosts clock, high precision delta time [us], payload and fcs
+            // absolute time [us] of capturing from device clock, calibrated to host clock
+            long time = this.clock.update(timing, host);
+
+            this.capture.set(rxch, stamp, time, timing, dt, frame, 8, frame.length - 8, valid);
+            this.dispatch(this.capture);
+
+            if (this.metrics != null) {
+                this.metrics.captured(rxch, valid);
+                this.metrics.written(System.nanoTime() - origin);
+            }
 
         } else if (id == REPLY_SET_CHANNEL_CHANNELPAGE) {
             
@@ -173,37 +240,113 @@ public class Device implements FrameListener {
 
             // some byte in response of status request indicates type of connected device
             if ((frame[0] & 0xff) == Type.DE.id) {
-                this.type = Type.DE;               
+                this.type(Type.DE);
             } else if ((frame[0] & 0xff) == Type.RZ.id) {
-                this.type = Type.RZ;                               
+                this.type(Type.RZ);
             }
 
         } else if (id == REPLY_SEND_MESSAGE) {
 
         }
+
+        if (id != DATA_CAPTURED) {
+            // complete pending command, after state has been updated
+            this.reply(id, frame);
+        }
         
     }
 
+    // pass a captured frame to all sinks
+    public void dispatch(Capture frame) {
+        CaptureFilter f = this.filter;
+        if (f != null && !f.test(frame)) return;
+        for (CaptureSink cs : this.sinks) {
+            try {
+                cs.write(frame);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    // set type of device, if not aquired from the device itself
+    public boolean type(String name) {
+        for (Type t : Type.values()) {
+            if (t.name.equalsIgnoreCase(name)) {
+                this.type(t);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void type(Type type) {
+        if (this.type != type) {
+            // 4 bytes of timing for DE devices, 3 bytes for RZ devices
+            this.clock = new DeviceClock(type == Type.DE ? 32 : 24);
+        }
+        this.type = type;
+    }
+
+    // model of device clock
+    public DeviceClock clock() {
+        return this.clock;
+    }
+
+    // send a command, completed by its reply (id of command + 1) or failed after timeout [ms]
+    public CompletableFuture<byte[]> command(byte cmd, byte[] cnt, long timeout) {
+        final CompletableFuture<byte[]> reply = new CompletableFuture<byte[]>();
+        Queue<CompletableFuture<byte[]>> queue = this.replies[(cmd + 1) & 0xff];
+        queue.add(reply);
+        try {
+            if (this.write(FrameUtility.prepare(cmd, cnt)) < 0) throw new IOException("not connected");
+        } catch (IOException e) {
+            queue.remove(reply);
+            reply.completeExceptionally(e);
+            return reply;
+        }
+        final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+            public void run() {
+                reply.completeExceptionally(new TimeoutException());
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        reply.whenComplete(new BiConsumer<byte[], Throwable>() {
+            public void accept(byte[] frame, Throwable e) {
+                timer.cancel(false);
+            }
+        });
+        return reply;
+    }
+
+    // replies of commands are expected in the order the commands were sent
+    private void reply(byte id, byte[] frame) {
+        Queue<CompletableFuture<byte[]>> queue = this.replies[id & 0xff];
+        CompletableFuture<byte[]> reply;
+        while ((reply = queue.poll()) != null) {
+            // commands timed out already are skipped
+            if (reply.complete(frame)) break;
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> reply) {
+        try {
+            return reply.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
     // get status info, e.g. device type
     public boolean status() {
-        try {
-            this.write(FrameUtility.prepare(AQUIRE_STATUS));
-        } catch (Exception e) {}
-        return this.response != null;
+        return await(this.command(AQUIRE_STATUS, new byte[0], TIMEOUT)) != null;
     }
 
     // set capturing on/off
     public boolean enable(boolean value) {
-        try {
-            if (value) {
-                this.write(FrameUtility.prepare(ENABLE_CAPTURE));
-            } else {
-                this.write(FrameUtility.prepare(DISABLE_CAPTURE));
-            }
-            if (this.response != null) {
-                this.enabled = value;
-            }
-        } catch (Exception e) {}
+        byte[] reply = await(this.command(value ? ENABLE_CAPTURE : DISABLE_CAPTURE, new byte[0], TIMEOUT));
+        if (reply != null) {
+            this.enabled = value;
+        }
         return this.enabled;
     }
 
@@ -214,7 +357,7 @@ public class Device implements FrameListener {
     }
 
     public boolean send(int channel, String msg) {
-        return this.send(SEND_MESSAGE, channel, msg.getBytes());
+        return this.send(channel, msg.getBytes());
     }
 
     public boolean send(String channel, byte[] msg) {
@@ -224,30 +367,23 @@ public class Device implements FrameListener {
     }
     
     public boolean send(int channel, byte[] msg) {
-        if (this.send(SEND_MESSAGE, channel, msg)) {
-            if (this.response != null) {
-                // device will rest on the channel for monitoring
-                this.channel = channel;                
-            }
+        if (await(this.sending(channel, msg)) != null) {
+            // device will rest on the channel for monitoring
+            this.channel = channel;                
             return true;
         }
         return false;
     }
 
     // sends exactly 13 bytes (investigated firmware seems to limit frame length to 13 bytes for outgoing messages)
-    private boolean send(byte cmd, int channel, byte[] msg) {
-        ByteBuffer temp = ByteBuffer.allocate(4 + 13);
-        temp.put((byte)255);
-        temp.put((byte)channel);
-        temp.put((byte)255);
-        temp.put((byte)255);
-        int len = Math.min(13, msg.length);
-        for (int i=0; i<len; i++) temp.put(msg[i]);            
-        for (int i=len; i<13; i++) temp.put((byte)0);            
-        try {
-            return this.write(FrameUtility.prepare(cmd, temp.array())) > 0;
-        } catch (IOException e) {}
-        return false;
+    public CompletableFuture<byte[]> sending(int channel, byte[] msg) {
+        byte[] temp = new byte[4 + 13];
+        temp[0] = (byte)255;
+        temp[1] = (byte)channel;
+        temp[2] = (byte)255;
+        temp[3] = (byte)255;
+        System.arraycopy(msg, 0, temp, 4, Math.min(13, msg.length));
+        return this.command(SEND_MESSAGE, temp, TIMEOUT);
     }
 
     // get value of channel
@@ -266,7 +402,15 @@ public class Device implements FrameListener {
         return this.channel(channel, 0);
     }
 
-    private boolean channel(int channel, int page) {
+    public boolean channel(int channel, int page) {
+        CompletableFuture<byte[]> reply = this.switching(channel, page);
+        byte[] frame = await(reply);
+        // 0xfa in response indicates a non-supported channel, other channels are late replies to commands timed out
+        return (frame != null) && (frame.length > 0) && ((frame[0] & 0xff) == channel);
+    }
+
+    // change channel, completed as soon as the device has answered
+    public CompletableFuture<byte[]> switching(int channel, int page) {
         // channels on page 0
         //  0   : 868 MHz band
         //  1-10: 915 MHz band
@@ -277,124 +421,83 @@ public class Device implements FrameListener {
         } else if ((page == 1) || (page == 2)) {
             b = (channel >= 0) && (channel <= 10); 
         }
-        if (b) {
-            try {
-                byte[] cnt = new byte[] { (byte) channel, (byte) page };
-                this.write(FrameUtility.prepare(SET_CHANNEL_CHANNELPAGE, cnt));
-                return this.response != null;
-            } catch (Exception e) {}
+        if (!b) {
+            CompletableFuture<byte[]> reply = new CompletableFuture<byte[]>();
+            reply.completeExceptionally(new IllegalArgumentException("channel " + channel + " on page " + page));
+            return reply;
         }
-        return false;
+        return this.command(SET_CHANNEL_CHANNELPAGE, new byte[] { (byte) channel, (byte) page }, TIMEOUT);
     }
 
-    // reset device
+    // reset device, tried twice
     public boolean reset() {
-        try {
-            if (this.connect(null)) {
-                for (int i = 0; i < 2; i++) {
-                    this.write(FrameUtility.prepare(RESET_DEVICE));
-                    Thread.sleep(75L);
-                }
-                return this.response != null;
+        if (this.connect()) {
+            for (int i = 0; i < 2; i++) {
+                if (await(this.command(RESET_DEVICE, new byte[0], TIMEOUT_RESET)) != null) return true;
             }
-        } catch (NoSuchPortException | PortInUseException |
-                 UnsupportedCommOperationException | IOException |
-                 InterruptedException e) {}
+        }
         return false;
     }
 
-    private int write(ByteBuffer buf) throws IOException {
-        if (poout == null) return -1;
-        this.response = null;
-        WritableByteChannel channel = Channels.newChannel(poout);
+    private synchronized int write(ByteBuffer buf) throws IOException {
+        WritableByteChannel channel = this.transport != null ? this.transport.output() : null;
+        if (channel == null) return -1;
         int len = 0;
-        // System.out.println(System.currentTimeMillis() + " " + Utility.hex(buf.array()));
         while (buf.hasRemaining()) {
             len += channel.write(buf);
-            try {
-                Thread.sleep(25L);
-            } catch (InterruptedException ignored) {}
         }
         return len;
     }
 
     // is device connected?
     public boolean connect() {
-        return this.serial != null;
+        return this.transport != null;
     }
 
-    // connect to device
-    public boolean connect(String port)
-            throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
+    // connect to device, given by name of a serial port or by uri of any other transport
+    public boolean connect(String port) throws IOException {
         if (port != null) {
-            CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(port);
-            if (portIdentifier.isCurrentlyOwned()) {
-                throw new PortInUseException();
-            } else {
-                CommPort commPort = portIdentifier.open(this.getClass().getName(), 5000);
-                if (commPort instanceof SerialPort) {
-                    serial = (SerialPort) commPort;
-                    serial.setSerialPortParams(460800, SerialPort.DATABITS_8, SerialPort.STOPBITS_1,
-                            SerialPort.PARITY_NONE);
-                    serial.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
-                    serial.setDTR(false);
-                    poin = serial.getInputStream();
-                    poout = serial.getOutputStream();
-                    poread = new PortReader(poin);
-                    poread.addListener(this);
-                    try {
-                        serial.addEventListener(poread);
-                        serial.notifyOnDataAvailable(true);
-                    } catch (TooManyListenersException e) {
-                        throw new IOException();
-                    }
-                    // accept input via stdin
-                    this.piread = new PipeReader(this, System.in);
-                    this.piread.start();
-                } else {
-                    throw new NoSuchPortException();
-                }
-            }
+            return this.connect(Transport.of(port));
         }
-        return this.serial != null;
+        return this.transport != null;
+    }
+
+    public boolean connect(Transport transport) throws IOException {
+        transport.open();
+        this.transport = transport;
+        poread = new PortReader(transport.input());
+        poread.metrics(metrics);
+        if (metrics != null) metrics.watch(pipeline);
+        // frames are processed apart from the thread reading the port
+        pipeline.addListener(this);
+        pipeline.start();
+        poread.addListener(this.router);
+        if (threaded || !transport.listen(poread)) {
+            poread.start();
+        }
+        return true;
     }
 
     // disconnect from device
     public void disconnect() throws IOException {
-        if (poout != null) {
-            this.poout.close();
-            this.poout = null;
-        }
-        if (poin != null) {
-            this.poin.close();
-            this.poin = null;
-        }
-        if (serial != null) {
+        if (transport != null) {
             this.channel = null;
-            this.poread.removeListener(this);
+            // closing releases reads blocked
+            this.transport.close();
+            this.transport = null;
+            this.poread.stop();
+            this.poread.removeListener(this.router);
             this.poread = null;
-            this.serial.notifyOnDataAvailable(false);
-            this.serial.removeEventListener();
-            this.serial.close();
-            this.serial = null;
-            this.piread = null;
+            this.pipeline.stop();
+            this.pipeline.removeListener(this);
         }
     }
 
     public String toString() {
-        String s = "{device={type=%s,channel=%s," +
-                   "serial={port=%s,settings={baudate=%s,databits=%s,stopbits=%s,parity=%s}," +
-                   "flowcontrol=%s}}}";
-        if (serial == null)
-            return String.format(s, "", "", "", "", "", "", "");
-        return String.format(s,
+        return String.format("{device={type=%s,channel=%s%s}}",
                 type!=null ? type : "",
                 channel!=null ? channel : "",
-                serial.getName(),
-                serial.getBaudRate(), serial.getDataBits(),
-                serial.getStopBits(),
-                serial.getParity(), serial.getFlowControlMode()
-               );
+                transport!=null ? "," + transport : "");
     }
 
 }
\ No newline at end of file
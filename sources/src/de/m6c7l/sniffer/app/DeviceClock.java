@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+// extends the timer of a device to 64 bits and maps it to host time by a fit of offset and drift
+public class DeviceClock {
+
+    // host time is sampled once per bucket, keeping the sample of lowest latency
+    private static final long BUCKET = 1000 * 1000; // [us]
+
+    private final long range; // timer wraps after this many ticks [us]
+    private final int window; // buckets used for fitting
+
+    // host clock, anchored once to epoch and continued by nanoseconds
+    private final long anchorNanos = System.nanoTime();
+    private final long anchorMicros = System.currentTimeMillis() * 1000;
+
+    private long ticks = -1; // extended timer [us]
+    private long raw = 0;    // last timer value read
+    private long host = 0;   // host time of last timer value [us]
+    private long last = 0;   // last calibrated time returned [us]
+
+    // minimum of host time minus ticks within the current bucket
+    private long bucketStart = 0;
+    private long bucketX = 0;
+    private long bucketY = Long.MAX_VALUE;
+
+    // ring of bucket minima
+    private final long[] xs;
+    private final long[] ys;
+    private int count = 0;
+    private int next = 0;
+
+    // fit: host time = ticks + offset + drift * (ticks - origin)
+    private long origin = 0;
+    private double offset = 0;
+    private double drift = 0;
+    private double error = Double.NaN;
+
+    public DeviceClock(int bits) {
+        this(bits, 60);
+    }
+
+    public DeviceClock(int bits, int window) {
+        this.range = 1L << bits;
+        this.window = Math.max(2, window);
+        this.xs = new long[this.window];
+        this.ys = new long[this.window];
+    }
+
+    // host time since epoch [us]
+    public long host() {
+        return this.anchorMicros + (System.nanoTime() - this.anchorNanos) / 1000;
+    }
+
+    // extended timer of last frame [us]
+    public synchronized long ticks() {
+        return this.ticks;
+    }
+
+    // estimated drift of device clock against host clock [ppm]
+    public synchronized double drift() {
+        return this.drift * 1e6;
+    }
+
+    // bound of the error of calibrated times [us], spread of samples around the fit
+    public synchronized double error() {
+        return this.error;
+    }
+
+    // take timer value of a frame received at given host time [us], returns calibrated time [us]
+    public synchronized long update(long raw, long host) {
+        if (this.ticks < 0) {
+            this.ticks = raw;
+        } else {
+            // host time elapsed tells about wraps of the timer missed in between
+            long diff = (raw - this.raw) & (this.range - 1);
+            double elapsed = (host - this.host) * (1 - this.drift);
+            long wraps = Math.max(0, Math.round((elapsed - diff) / this.range));
+            this.ticks += diff + wraps * this.range;
+        }
+        this.raw = raw;
+        this.host = host;
+        this.sample(this.ticks, host - this.ticks, host);
+        long time = this.ticks + Math.round(this.offset + this.drift * (this.ticks - this.origin));
+        // calibrated times do not go back when the fit changes
+        if (time <= this.last) time = this.last + 1;
+        this.last = time;
+        return time;
+    }
+
+    private void sample(long x, long y, long host) {
+        if (this.bucketY == Long.MAX_VALUE) {
+            this.bucketStart = host;
+        } else if (host - this.bucketStart >= BUCKET) {
+            this.xs[this.next] = this.bucketX;
+            this.ys[this.next] = this.bucketY;
+            this.next = (this.next + 1) % this.window;
+            this.count = Math.min(this.count + 1, this.window);
+            this.bucketY = Long.MAX_VALUE;
+            this.bucketStart = host;
+            this.fit();
+        }
+        if (y < this.bucketY) {
+            this.bucketX = x;
+            this.bucketY = y;
+        }
+        if (this.count == 0) {
+            // no fit yet, lowest latency seen so far
+            this.origin = this.bucketX;
+            this.offset = this.bucketY;
+        }
+    }
+
+    // least squares over bucket minima, relative to the oldest one
+    private void fit() {
+        int first = (this.next - this.count + this.window) % this.window;
+        long x0 = this.xs[first];
+        long y0 = this.ys[first];
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int k = 0; k < this.count; k++) {
+            int i = (first + k) % this.window;
+            double x = this.xs[i] - x0;
+            double y = this.ys[i] - y0;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double n = this.count;
+        double den = n * sxx - sx * sx;
+        double b = (this.count > 1 && den != 0) ? (n * sxy - sx * sy) / den : 0;
+        double a = (sy - b * sx) / n;
+        double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;
+        for (int k = 0; k < this.count; k++) {
+            int i = (first + k) % this.window;
+            double r = (this.ys[i] - y0) - (a + b * (this.xs[i] - x0));
+            lo = Math.min(lo, r);
+            hi = Math.max(hi, r);
+        }
+        // line is moved to the sample of lowest latency
+        this.origin = x0;
+        this.offset = y0 + a + lo;
+        this.drift = b;
+        this.error = this.count > 1 ? hi - lo : Double.NaN;
+    }
+
+    public synchronized String toString() {
+        return "{clock={ticks=" + this.ticks + ",drift=" + String.format("%.2f", this.drift()) +
+               ",error=" + (Double.isNaN(this.error) ? "" : String.valueOf(Math.round(this.error))) +
+               ",samples=" + this.count + "}}";
+    }
+
+}
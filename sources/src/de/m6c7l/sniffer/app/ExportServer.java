@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// exports captured frames to the network, driven by one selector thread:
+// as zep datagrams (udp) to given addresses and as stream of records (tcp) to any subscriber connected,
+// frames are queued in bounded buffers, frames not fitting are dropped instead of blocking the capture
+public class ExportServer implements CaptureSink {
+
+    // default udp port of zep, as expected by wireshark
+    final public static int ZEP_PORT = 17754;
+
+    private static final int ZEP_HEADER = 32;
+    private static final long NTP_EPOCH = 2208988800L; // [s] from 1900 to 1970
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final DatagramChannel udp;
+    private final List<SocketAddress> targets;
+
+    private final int capacity; // [byte] queued per subscriber
+    private final long stall;   // [ms] subscribers dropping frames for that long are disconnected
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    private final Outbox datagrams;
+
+    private final ByteBuffer record = ByteBuffer.allocate(CaptureRecord.HEADER + 0xff).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer zep = ByteBuffer.allocate(ZEP_HEADER + 0xff).order(ByteOrder.BIG_ENDIAN);
+    private final ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private int sequence = 0;
+
+    private final AtomicBoolean signaled = new AtomicBoolean();
+    private volatile boolean running = true;
+    private long exported = 0;
+    private long disconnected = 0;
+    private long lost = 0; // frames dropped for subscribers gone
+
+    // frames queued for a tcp subscriber or for zep
+    private static class Outbox {
+
+        final ByteBuffer buf;
+        long dropped = 0;
+        long since = 0; // [ms] dropping frames since, 0 if not
+
+        Outbox(int capacity) {
+            this.buf = ByteBuffer.allocateDirect(capacity);
+        }
+
+        synchronized boolean offer(ByteBuffer src) {
+            if (this.buf.remaining() < src.remaining()) {
+                this.dropped++;
+                if (this.since == 0) this.since = System.currentTimeMillis();
+                return false;
+            }
+            this.buf.put(src.duplicate());
+            this.since = 0;
+            return true;
+        }
+
+    }
+
+    private static class Subscriber extends Outbox {
+
+        final SocketChannel channel;
+
+        Subscriber(SocketChannel channel, int capacity) {
+            super(capacity);
+            this.channel = channel;
+        }
+
+        // write as much as possible, true if all written
+        synchronized boolean drain() throws IOException {
+            this.buf.flip();
+            this.channel.write(this.buf);
+            boolean done = !this.buf.hasRemaining();
+            this.buf.compact();
+            return done;
+        }
+
+    }
+
+    // port to accept subscribers on (-1 for none, 0 for any), addresses to send zep to
+    public ExportServer(int port, List<SocketAddress> targets) throws IOException {
+        this(port, targets, 1 << 18, 10 * 1000L);
+    }
+
+    public ExportServer(int port, List<SocketAddress> targets, int capacity, long stall) throws IOException {
+        this.targets = new ArrayList<SocketAddress>(targets);
+        this.capacity = capacity;
+        this.stall = stall;
+        this.datagrams = new Outbox(capacity);
+        this.selector = Selector.open();
+        if (port >= 0) {
+            this.server = ServerSocketChannel.open();
+            this.server.bind(new InetSocketAddress(port));
+            this.server.configureBlocking(false);
+            this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        } else {
+            this.server = null;
+        }
+        if (!this.targets.isEmpty()) {
+            this.udp = DatagramChannel.open();
+            this.udp.configureBlocking(false);
+            this.udp.register(this.selector, 0);
+        } else {
+            this.udp = null;
+        }
+        Thread t = new Thread("export") {
+            public void run() {
+                ExportServer.this.loop();
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // local port subscribers connect to, -1 if none
+    public int port() {
+        return this.server == null ? -1 : this.server.socket().getLocalPort();
+    }
+
+    public int subscribers() {
+        return this.subscribers.size();
+    }
+
+    // queue frame for every subscriber and target, called by capturing threads
+    public synchronized void write(Capture frame) throws IOException {
+        if (!this.running) return;
+        this.exported++;
+        if (!this.subscribers.isEmpty()) {
+            this.record.clear();
+            CaptureRecord.encode(frame, this.record);
+            this.record.flip();
+            for (Subscriber s : this.subscribers) s.offer(this.record);
+        }
+        if (this.udp != null) {
+            this.zep.clear();
+            this.zep.putShort((short)0); // length of datagram, for the outbox only
+            this.zep(frame);
+            this.zep.putShort(0, (short)(this.zep.position() - 2));
+            this.zep.flip();
+            this.datagrams.offer(this.zep);
+        }
+        // wake up selector once for frames queued meanwhile
+        if (!this.signaled.getAndSet(true)) this.selector.wakeup();
+    }
+
+    // zep version 2, data frame, crc mode
+    private void zep(Capture frame) {
+        long time = frame.time();
+        long seconds = time / 1000000 + NTP_EPOCH;
+        long fraction = ((time % 1000000) << 32) / 1000000;
+        this.zep.put((byte)'E').put((byte)'X');
+        this.zep.put((byte)2);                  // version
+        this.zep.put((byte)1);                  // type: data
+        this.zep.put((byte)frame.channel());
+        this.zep.putShort((short)0);            // device id
+        this.zep.put((byte)1);                  // crc mode, fcs follows the frame
+        this.zep.put((byte)0xff);               // lqi, not known
+        this.zep.putInt((int)seconds);
+        this.zep.putInt((int)fraction);
+        this.zep.putInt(this.sequence++);
+        for (int i = 0; i < 10; i++) this.zep.put((byte)0);
+        this.zep.put((byte)frame.length());
+        this.zep.put(frame.buffer(), frame.offset(), frame.length());
+    }
+
+    public void flush() throws IOException {}
+
+    public void close() throws IOException {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (this.running) {
+                this.selector.select(1000L);
+                Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        this.accept();
+                    } else if (key.attachment() instanceof Subscriber) {
+                        Subscriber s = (Subscriber) key.attachment();
+                        if (key.isReadable()) this.read(s, key);
+                        if (key.isValid() && key.isWritable()) this.drain(s, key);
+                    }
+                }
+                this.signaled.set(false);
+                for (Subscriber s : this.subscribers) {
+                    this.drain(s, s.channel.keyFor(this.selector));
+                }
+                if (this.udp != null) this.send();
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            for (Subscriber s : this.subscribers) this.disconnect(s);
+            try {
+                if (this.server != null) this.server.close();
+                if (this.udp != null) this.udp.close();
+                this.selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = this.server.accept();
+        if (ch == null) return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Subscriber s = new Subscriber(ch, this.capacity);
+        ch.register(this.selector, SelectionKey.OP_READ, s);
+        this.subscribers.add(s);
+    }
+
+    // subscribers are not expected to send anything, reading tells about closed connections
+    private void read(Subscriber s, SelectionKey key) {
+        try {
+            this.scratch.clear();
+            if (s.channel.read(this.scratch) < 0) this.disconnect(s);
+        } catch (IOException e) {
+            this.disconnect(s);
+        }
+    }
+
+    private void drain(Subscriber s, SelectionKey key) {
+        if (key == null || !key.isValid()) return;
+        try {
+            boolean done = s.drain();
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            long since;
+            synchronized (s) {
+                since = s.since;
+            }
+            if (since > 0 && System.currentTimeMillis() - since > this.stall) {
+                this.disconnect(s);
+            }
+        } catch (IOException e) {
+            this.disconnect(s);
+        }
+    }
+
+    private void disconnect(Subscriber s) {
+        if (this.subscribers.remove(s)) {
+            synchronized (this) {
+                this.disconnected++;
+                this.lost += s.dropped;
+            }
+        }
+        try {
+            s.channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    // send queued datagrams to all targets, waiting for the socket to become writable if needed
+    private void send() throws IOException {
+        SelectionKey key = this.udp.keyFor(this.selector);
+        synchronized (this.datagrams) {
+            ByteBuffer buf = this.datagrams.buf;
+            buf.flip();
+            boolean blocked = false;
+            while (buf.remaining() >= 2 && !blocked) {
+                int len = buf.getShort(buf.position()) & 0xffff;
+                ByteBuffer dgram = buf.duplicate();
+                dgram.position(buf.position() + 2).limit(buf.position() + 2 + len);
+                for (SocketAddress target : this.targets) {
+                    // a datagram not sent is given up for this target, others may still receive it
+                    if (this.udp.send(dgram.duplicate(), target) == 0) blocked = true;
+                }
+                buf.position(buf.position() + 2 + len);
+            }
+            buf.compact();
+            key.interestOps(buf.position() > 0 ? SelectionKey.OP_WRITE : 0);
+        }
+    }
+
+    public synchronized String toString() {
+        long dropped = this.datagrams.dropped + this.lost;
+        for (Subscriber s : this.subscribers) dropped += s.dropped;
+        return "{export={port=" + this.port() + ",targets=" + this.targets + ",subscribers=" + this.subscribers.size() +
+               ",exported=" + this.exported + ",dropped=" + dropped + ",disconnected=" + this.disconnected + "}}";
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+// bytes read from a file, a named pipe or a character device, commands written to another one or to the same
+public class FileTransport implements Transport {
+
+    private final File in;
+    private final File out;
+
+    private FileChannel input;
+    private FileChannel output;
+
+    // reading only, e.g. a raw dump of a device
+    public FileTransport(File in) {
+        this(in, null);
+    }
+
+    // commands are written to out, if given, may be the same as in (e.g. a tty)
+    public FileTransport(File in, File out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    // opening a named pipe blocks until the other end is opened as well
+    public void open() throws IOException {
+        if (!this.in.exists()) throw new IOException("no such file: " + this.in);
+        if (this.in.equals(this.out)) {
+            this.input = FileChannel.open(this.in.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.output = this.input;
+        } else {
+            this.input = FileChannel.open(this.in.toPath(), StandardOpenOption.READ);
+            if (this.out != null) {
+                try {
+                    this.output = FileChannel.open(this.out.toPath(), StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    this.input.close();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public ReadableByteChannel input() {
+        return this.input;
+    }
+
+    public WritableByteChannel output() {
+        return this.output;
+    }
+
+    // bytes are read by the reader itself
+    public boolean listen(PortReader reader) {
+        return false;
+    }
+
+    public void close() throws IOException {
+        if (this.output != null && this.output != this.input) {
+            this.output.close();
+        }
+        this.output = null;
+        if (this.input != null) {
+            this.input.close();
+            this.input = null;
+        }
+    }
+
+    public String toString() {
+        return "file={in=" + this.in + ",out=" + (this.out != null ? this.out : "") + "}";
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.nio.ByteBuffer;
+
+public class FrameDecoder {
+
+    // states of frame parsing
+    private static final int HUNT = 0;   // looking for message start
+    private static final int LENGTH = 1; // message start seen, waiting for length
+    private static final int BODY = 2;   // length known, waiting for the remainder
+
+    // 1 byte message start + 1 byte length + up to 255 bytes of id, content and checksum
+    private static final int FRAME_MAX = 2 + 0xff;
+
+    private final FrameListener listener;
+
+    // ring buffer of received but not yet decoded bytes
+    private final byte[] ring;
+    private final int mask;
+    private long head = 0; // first byte not consumed yet
+    private long tail = 0; // next byte to be written
+
+    private int state = HUNT;
+    private int size = 0; // size of frame in progress, including message start and checksum
+
+    private long frames = 0;
+    private long discarded = 0;
+    private long failures = 0;
+
+    public FrameDecoder(FrameListener listener) {
+        this(listener, 4096);
+    }
+
+    public FrameDecoder(FrameListener listener, int capacity) {
+        if (capacity < FRAME_MAX || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two of at least " + FRAME_MAX);
+        this.listener = listener;
+        this.ring = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    // number of frames passed to the listener
+    public long frames() {
+        return this.frames;
+    }
+
+    // number of frames having a bad checksum
+    public long failures() {
+        return this.failures;
+    }
+
+    // number of bytes skipped while searching for a valid frame
+    public long discarded() {
+        return this.discarded;
+    }
+
+    // number of bytes kept for a frame not complete yet
+    public int pending() {
+        return (int)(this.tail - this.head);
+    }
+
+    // append received bytes and decode all frames completed by them
+    public void write(byte[] buf, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, this.ring.length - this.pending());
+            int pos = (int)(this.tail & this.mask);
+            int first = Math.min(n, this.ring.length - pos);
+            System.arraycopy(buf, off, this.ring, pos, first);
+            System.arraycopy(buf, off + first, this.ring, 0, n - first);
+            this.tail += n;
+            off += n;
+            len -= n;
+            this.decode();
+        }
+    }
+
+    public void write(ByteBuffer buf) {
+        while (buf.hasRemaining()) {
+            int n = Math.min(buf.remaining(), this.ring.length - this.pending());
+            int pos = (int)(this.tail & this.mask);
+            int first = Math.min(n, this.ring.length - pos);
+            buf.get(this.ring, pos, first);
+            buf.get(this.ring, 0, n - first);
+            this.tail += n;
+            this.decode();
+        }
+    }
+
+    // drop any partial frame, e.g. after reconnecting to a device
+    public void reset() {
+        this.head = this.tail;
+        this.state = HUNT;
+    }
+
+    private byte at(long i) {
+        return this.ring[(int)(i & this.mask)];
+    }
+
+    private void decode() {
+        while (true) {
+            switch (this.state) {
+            case HUNT:
+                while (this.head < this.tail && this.at(this.head) != Device.MESSAGE_START) {
+                    this.head++;
+                    this.discarded++;
+                }
+                if (this.head == this.tail) return;
+                this.state = LENGTH;
+                break;
+            case LENGTH:
+                if (this.tail - this.head < 2) return;
+                int len = this.at(this.head + 1) & 0xff;
+                if (len < 2) {
+                    // at least id and checksum are expected
+                    this.resync();
+                } else {
+                    this.size = len + 2;
+                    this.state = BODY;
+                }
+                break;
+            case BODY:
+                if (this.tail - this.head < this.size) return;
+                // same checksum as FrameUtility.checksum(), computed in place
+                byte cs = (byte) 0xff;
+                for (long i = this.head + 1; i < this.head + this.size - 1; i++) {
+                    cs = (byte) (cs - this.at(i));
+                }
+                if (cs == this.at(this.head + this.size - 1)) {
+                    this.emit();
+                    this.head += this.size;
+                    this.state = HUNT;
+                } else {
+                    this.failures++;
+                    this.resync();
+                }
+                break;
+            }
+        }
+    }
+
+    // skip message start of a broken frame, continue with next message start
+    private void resync() {
+        this.head++;
+        this.discarded++;
+        this.state = HUNT;
+    }
+
+    private void emit() {
+        byte id = this.at(this.head + 2);
+        byte[] cnt = new byte[this.size - 4];
+        int pos = (int)((this.head + 3) & this.mask);
+        int first = Math.min(cnt.length, this.ring.length - pos);
+        System.arraycopy(this.ring, pos, cnt, 0, first);
+        System.arraycopy(this.ring, 0, cnt, first, cnt.length - first);
+        this.frames++;
+        this.listener.receive(id, cnt);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// merges frames of several devices into one stream ordered by time
+public class FrameMerger {
+
+    private final CaptureSink out;
+    private final long window; // [us] frames are held back for reordering
+    private final int limit;   // frames held back at most
+
+    private final PriorityQueue<Entry> queue;
+    private final ArrayDeque<Entry> pool = new ArrayDeque<Entry>();
+    private final Capture capture = new Capture();
+    private long sequence = 0;
+
+    private volatile boolean running = true;
+
+    // copy of a captured frame
+    private static class Entry {
+        int channel;
+        long stamp;
+        long time;
+        long timing;
+        long delta;
+        byte[] buf = new byte[0xff];
+        int len;
+        boolean valid;
+        int track;
+        long seq; // frames having the same time keep their order
+    }
+
+    public FrameMerger(CaptureSink out, long window) {
+        this(out, window, 1 << 16);
+    }
+
+    public FrameMerger(CaptureSink out, long window, int limit) {
+        this.out = out;
+        this.window = window;
+        this.limit = limit;
+        this.queue = new PriorityQueue<Entry>(1024, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                if (a.time != b.time) return a.time < b.time ? -1 : 1;
+                return Long.compare(a.seq, b.seq);
+            }
+        });
+        // release frames having passed the window, even if no more frames arrive
+        Thread t = new Thread("merger") {
+            public void run() {
+                long sleep = Math.max(1, FrameMerger.this.window / 4000);
+                while (FrameMerger.this.running) {
+                    try {
+                        Thread.sleep(sleep);
+                        FrameMerger.this.release(System.currentTimeMillis() * 1000 - FrameMerger.this.window);
+                    } catch (InterruptedException | IOException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // sink for frames of one device, to be added to the device
+    public CaptureSink input() {
+        return new Input();
+    }
+
+    // frames kept for reordering
+    public synchronized int pending() {
+        return this.queue.size();
+    }
+
+    private synchronized void add(Capture frame, long time) throws IOException {
+        Entry e = this.pool.isEmpty() ? new Entry() : this.pool.poll();
+        e.channel = frame.channel();
+        e.stamp = frame.stamp();
+        e.time = time;
+        e.timing = frame.timing();
+        e.delta = frame.delta();
+        e.len = Math.min(frame.length(), e.buf.length);
+        System.arraycopy(frame.buffer(), frame.offset(), e.buf, 0, e.len);
+        e.valid = frame.valid();
+        e.track = frame.track();
+        e.seq = this.sequence++;
+        this.queue.add(e);
+        while (this.queue.size() > this.limit) {
+            this.emit(this.queue.poll());
+        }
+    }
+
+    // write all frames older than given time [us]
+    private synchronized void release(long time) throws IOException {
+        while (!this.queue.isEmpty() && this.queue.peek().time <= time) {
+            this.emit(this.queue.poll());
+        }
+    }
+
+    private void emit(Entry e) throws IOException {
+        this.capture.set(e.channel, e.stamp, e.time, e.timing, e.delta, e.buf, 0, e.len, e.valid);
+        this.capture.track(e.track);
+        this.pool.add(e);
+        this.out.write(this.capture);
+    }
+
+    public synchronized void flush() throws IOException {
+        this.release(Long.MAX_VALUE);
+        this.out.flush();
+    }
+
+    public void close() throws IOException {
+        this.running = false;
+        this.flush();
+        this.out.close();
+    }
+
+    // frames of a device, timed by its calibrated clock
+    private class Input implements CaptureSink {
+
+        public void write(Capture frame) throws IOException {
+            FrameMerger.this.add(frame, frame.time());
+        }
+
+        public void flush() throws IOException {
+            FrameMerger.this.flush();
+        }
+
+        public void close() throws IOException {
+            FrameMerger.this.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// bounded single producer ring between the reader of a port and the listeners of frames
+public class FramePipeline implements FrameListener {
+
+    // how to wait for frames or free slots
+    public enum Wait {
+        SPIN, YIELD, PARK;
+    }
+
+    // what to do if the ring is full
+    public enum Overflow {
+        BLOCK, DROP_NEWEST, DROP_OLDEST;
+    }
+
+    private static final long PARK_NS = 50 * 1000L;
+
+    private final List<FrameListener> listeners = new CopyOnWriteArrayList<FrameListener>();
+
+    private final AtomicReferenceArray<byte[]> frames;
+    private final byte[] ids;
+    private final long[] origins; // [ns] frames were received at
+    private final int mask;
+    private final Wait wait;
+    private final Overflow overflow;
+
+    // sequences, slot of head is taken next, slot of tail is written next
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long cached = 0; // last head seen by producer
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile Thread consumer;
+    private volatile long origin = 0;
+
+    public FramePipeline() {
+        this(4096, Wait.PARK, Overflow.BLOCK);
+    }
+
+    public FramePipeline(int capacity, Wait wait, Overflow overflow) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two");
+        this.frames = new AtomicReferenceArray<byte[]>(capacity);
+        this.ids = new byte[capacity];
+        this.origins = new long[capacity];
+        this.mask = capacity - 1;
+        this.wait = wait;
+        this.overflow = overflow;
+    }
+
+    public void addListener(FrameListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(FrameListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    // number of frames passed to the ring
+    public long published() {
+        return this.published.get();
+    }
+
+    // number of frames lost due to overflow
+    public long dropped() {
+        return this.dropped.get();
+    }
+
+    // number of frames waiting in the ring
+    public int pending() {
+        return (int)(this.tail.get() - this.head.get());
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    // time [ns] the frame currently dispatched was received from port at
+    public long origin() {
+        return this.origin;
+    }
+
+    // producer side, called by the reader of a port only
+    public void receive(byte id, byte[] frame) {
+        long t = this.tail.get();
+        if (t - this.cached > this.mask) {
+            this.cached = this.head.get();
+            while (t - this.cached > this.mask) {
+                if (this.overflow == Overflow.DROP_NEWEST) {
+                    this.dropped.incrementAndGet();
+                    return;
+                } else if (this.overflow == Overflow.DROP_OLDEST) {
+                    // take the oldest frame away from consumer, consumer notices by a failing claim
+                    if (this.head.compareAndSet(this.cached, this.cached + 1)) {
+                        this.dropped.incrementAndGet();
+                    }
+                } else {
+                    this.idle();
+                }
+                this.cached = this.head.get();
+            }
+        }
+        int i = (int)(t & this.mask);
+        this.ids[i] = id;
+        this.origins[i] = System.nanoTime();
+        this.frames.lazySet(i, frame);
+        this.tail.lazySet(t + 1);
+        this.published.incrementAndGet();
+    }
+
+    // start dispatching frames to listeners
+    public synchronized void start() {
+        if (this.consumer != null) return;
+        this.consumer = new Thread("pipeline") {
+            public void run() {
+                FramePipeline.this.consume(this);
+            }
+        };
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    // stop dispatching, frames left are dispatched before
+    public synchronized void stop() {
+        Thread t = this.consumer;
+        this.consumer = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(1000L);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private void consume(Thread self) {
+        while (true) {
+            long h = this.head.get();
+            if (h == this.tail.get()) {
+                if (this.consumer != self) return;
+                this.idle();
+                continue;
+            }
+            int i = (int)(h & this.mask);
+            byte id = this.ids[i];
+            long origin = this.origins[i];
+            byte[] frame = this.frames.get(i);
+            // claim fails if producer dropped this frame meanwhile
+            if (!this.head.compareAndSet(h, h + 1)) continue;
+            this.origin = origin;
+            for (FrameListener fl : this.listeners) {
+                fl.receive(id, frame);
+            }
+        }
+    }
+
+    private void idle() {
+        switch (this.wait) {
+        case SPIN:
+            break;
+        case YIELD:
+            Thread.yield();
+            break;
+        case PARK:
+            LockSupport.parkNanos(PARK_NS);
+            break;
+        }
+    }
+
+    public String toString() {
+        return "{pipeline={capacity=" + this.capacity() + ",wait=" + this.wait + ",overflow=" + this.overflow +
+               ",published=" + this.published() + ",dropped=" + this.dropped() + ",pending=" + this.pending() + "}}";
+    }
+
+}
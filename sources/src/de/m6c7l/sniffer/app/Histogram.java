@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// lock-free log-linear histogram of positive values, relative error of about 6 %
+public class Histogram {
+
+    // sub-buckets per power of two
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+
+    public Histogram() {
+        super();
+    }
+
+    private static int index(long value) {
+        if (value < SUB) return (int)Math.max(0, value);
+        int exp = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // highest value of a bucket
+    private static long value(int index) {
+        if (index < SUB) return index;
+        int exp = index / SUB + SUB_BITS - 1;
+        long sub = index % SUB;
+        return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    public void record(long value) {
+        this.counts.incrementAndGet(index(value));
+    }
+
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < this.counts.length(); i++) n += this.counts.get(i);
+        return n;
+    }
+
+    // value below which given share (0..1) of recorded values are, 0 if nothing recorded
+    public long percentile(double share) {
+        long[] snap = new long[this.counts.length()];
+        long n = 0;
+        for (int i = 0; i < snap.length; i++) {
+            snap[i] = this.counts.get(i);
+            n += snap[i];
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(share * n));
+        long seen = 0;
+        for (int i = 0; i < snap.length; i++) {
+            seen += snap[i];
+            if (seen >= rank) return value(i);
+        }
+        return value(snap.length - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.counts.length(); i++) this.counts.set(i, 0);
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+// transmits frames at the times given, e.g. frames captured earlier, keeping the gaps between them,
+// messages are sent without waiting for the replies of those sent before, up to a window of pending ones
+public class Injector extends Thread implements CaptureSink {
+
+    // frames are parked until shortly before being due, then waited for by spinning
+    private static final long SPIN = 1000000L; // [ns]
+
+    private static class Frame {
+
+        final int channel;
+        final long time; // [us]
+        final byte[] data;
+
+        Frame(int channel, long time, byte[] data) {
+            this.channel = channel;
+            this.time = time;
+            this.data = data;
+        }
+
+    }
+
+    private static final Frame END = new Frame(0, 0, null);
+
+    private final Device device;
+    private final double speed; // 1 for original timing, 0 for as fast as possible
+    private final int size;
+    private final Semaphore window;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(4096);
+    private final Histogram error = new Histogram(); // [us] late of due time
+
+    private long last = -1;  // [us] time of frame queued last
+    private long queued = 0;
+    private long truncated = 0;
+    private long sent = 0;
+    private long acked = 0;
+    private long failed = 0;
+    private long late = 0;   // [us] maximum
+    private long began = 0;  // [ns] first and last message sent
+    private long ended = 0;
+
+    public Injector(Device device, double speed, int window) {
+        super("inject");
+        this.setDaemon(true);
+        this.device = device;
+        this.speed = speed;
+        this.size = Math.max(1, window);
+        this.window = new Semaphore(this.size);
+    }
+
+    // frame to be sent on given channel at given time [us], relative to the first one, blocks if queue is full
+    public void offer(int channel, long time, byte[] data) throws InterruptedException {
+        this.queue.put(new Frame(channel, time, data));
+        synchronized (this) {
+            this.queued++;
+            // firmware sends 13 bytes at most
+            if (data.length > 13) this.truncated++;
+        }
+    }
+
+    // captured frames are queued without fcs, gaps are taken from deltas, or from time if too long for deltas
+    public void write(Capture frame) throws IOException {
+        long time = frame.delta() > 0 && this.last >= 0 ? this.last + frame.delta() : frame.time();
+        this.last = time;
+        byte[] data = new byte[Math.max(0, frame.length() - 2)];
+        System.arraycopy(frame.buffer(), frame.offset(), data, 0, data.length);
+        try {
+            this.offer(frame.channel(), time, data);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void flush() throws IOException {}
+
+    // no more frames, sending ends as soon as all queued are sent
+    public void close() throws IOException {
+        try {
+            this.queue.put(END);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void run() {
+        Integer channel = this.device.channel();
+        long start = 0;
+        long first = 0;
+        try {
+            Frame f;
+            while ((f = this.queue.take()) != END) {
+                long now = System.nanoTime();
+                if (start == 0) {
+                    start = now;
+                    first = f.time;
+                }
+                long due = this.speed > 0 ? start + (long)((f.time - first) * 1000 / this.speed) : now;
+                // park until shortly before, then spin
+                while ((now = System.nanoTime()) < due - SPIN) {
+                    LockSupport.parkNanos(due - now - SPIN);
+                }
+                while ((now = System.nanoTime()) < due) {
+                    Thread.onSpinWait();
+                }
+                this.window.acquire();
+                this.send(f, due);
+            }
+            // wait for pending replies
+            this.window.acquire(this.size);
+        } catch (InterruptedException e) {
+            return;
+        }
+        // device rests on the channel of the last message, return to the one monitored before
+        if (channel != null) this.device.channel(channel);
+        System.err.println(this);
+    }
+
+    private void send(Frame f, long due) {
+        long now = System.nanoTime();
+        long late = Math.max(0, now - due) / 1000;
+        this.error.record(late);
+        synchronized (this) {
+            if (this.sent == 0) this.began = now;
+            this.ended = now;
+            this.sent++;
+            if (late > this.late) this.late = late;
+        }
+        CompletableFuture<byte[]> reply = this.device.sending(f.channel, f.data);
+        reply.whenComplete(new BiConsumer<byte[], Throwable>() {
+            public void accept(byte[] frame, Throwable e) {
+                synchronized (Injector.this) {
+                    if (e == null) {
+                        Injector.this.acked++;
+                    } else {
+                        Injector.this.failed++;
+                    }
+                }
+                Injector.this.window.release();
+            }
+        });
+    }
+
+    // messages sent per second
+    public synchronized double rate() {
+        return this.sent > 1 ? (this.sent - 1) * 1e9 / (this.ended - this.began) : 0;
+    }
+
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "{inject={queued=%d,sent=%d,acked=%d,failed=%d,truncated=%d,rate=%.1f,error={p50=%d,p99=%d,max=%d}}}",
+                this.queued, this.sent, this.acked, this.failed, this.truncated, this.rate(),
+                Math.min(this.error.percentile(0.5), this.late), Math.min(this.error.percentile(0.99), this.late),
+                this.late);
+    }
+
+}
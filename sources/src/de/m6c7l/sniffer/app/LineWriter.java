@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class LineWriter implements CaptureSink {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    // longest possible line: channel, stamp, delta (up to 20 digits each), 255 bytes of payload and fcs, marker, tag
+    private static final int LINE_MAX = 3 * 21 + 3 * 0xff + 2 + 5 + 1;
+
+    private final WritableByteChannel out;
+    private final ByteBuffer buf;
+
+    // flush policy: after a number of lines and/or after some milliseconds
+    private final int lines;
+    private final long interval;
+
+    private int pending = 0;
+    private long flushed = System.currentTimeMillis();
+
+    public LineWriter() {
+        this(1, 0);
+    }
+
+    // buffered writing to stdout
+    public LineWriter(int lines, long interval) {
+        this(new FileOutputStream(FileDescriptor.out).getChannel(), lines, interval);
+    }
+
+    public LineWriter(WritableByteChannel out, int lines, long interval) {
+        this.out = out;
+        this.lines = Math.max(1, lines);
+        this.interval = interval;
+        this.buf = ByteBuffer.allocate(Math.max(LINE_MAX, Math.min(this.lines, 64) * 128));
+        if (interval > 0) {
+            // flush lines left in buffer if capturing goes quiet
+            Thread t = new Thread() {
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(LineWriter.this.interval);
+                            LineWriter.this.flush(false);
+                        } catch (InterruptedException | IOException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // format one captured frame the same way as "%2d %13d %7d " followed by hex bytes, fcs, marker and tag,
+    // tagged by R if retransmitted or by +n if n frames of the source were missed before (see SequenceTracker)
+    public synchronized void write(Capture frame) throws IOException {
+        if (this.buf.remaining() < LINE_MAX) this.drain();
+        this.decimal(frame.channel(), 2);
+        this.buf.put((byte)' ');
+        this.decimal(frame.stamp(), 13);
+        this.buf.put((byte)' ');
+        this.decimal(frame.delta(), Device.PRECISION_BASE_uS);
+        this.buf.put((byte)' ');
+        this.hex(frame.buffer(), frame.offset(), frame.length());
+        if (!frame.valid()) {
+            this.buf.put((byte)' ');
+            this.buf.put((byte)'*');
+        }
+        if (frame.track() == SequenceTracker.RETRY) {
+            this.buf.put((byte)' ');
+            this.buf.put((byte)'R');
+        } else if (frame.track() > 0) {
+            this.buf.put((byte)' ');
+            this.buf.put((byte)'+');
+            this.decimal(frame.track(), 0);
+        }
+        this.buf.put((byte)Device.LF);
+        this.pending++;
+        if (this.pending >= this.lines) {
+            this.drain();
+        } else if (this.interval > 0) {
+            this.flush(false);
+        }
+    }
+
+    public void flush() throws IOException {
+        this.flush(true);
+    }
+
+    public synchronized void close() throws IOException {
+        this.drain();
+        this.out.close();
+    }
+
+    // hex bytes separated by blanks
+    private void hex(byte[] frame, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            this.buf.put(HEX[(frame[i] >> 4) & 0x0f]);
+            this.buf.put(HEX[frame[i] & 0x0f]);
+            this.buf.put((byte)' ');
+        }
+        if (len > 0) this.buf.position(this.buf.position() - 1); // fcs is trimmed
+    }
+
+    // write buffered lines, only if due unless forced
+    public synchronized void flush(boolean force) throws IOException {
+        if (force || System.currentTimeMillis() - this.flushed >= this.interval) {
+            this.drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        this.buf.flip();
+        while (this.buf.hasRemaining()) {
+            this.out.write(this.buf);
+        }
+        this.buf.clear();
+        this.pending = 0;
+        this.flushed = System.currentTimeMillis();
+    }
+
+    // right-aligned decimal padded with blanks, never truncated
+    private void decimal(long value, int width) {
+        long v = value < 0 ? -value : value;
+        int digits = 1;
+        for (long p = 10; digits < 19 && v >= p; p *= 10) digits++;
+        if (value < 0) digits++;
+        for (int i = digits; i < width; i++) this.buf.put((byte)' ');
+        int end = this.buf.position() + digits;
+        int pos = end;
+        do {
+            this.buf.put(--pos, (byte)('0' + (v % 10)));
+            v /= 10;
+        } while (v > 0);
+        if (value < 0) this.buf.put(--pos, (byte)'-');
+        this.buf.position(end);
+    }
+
+}
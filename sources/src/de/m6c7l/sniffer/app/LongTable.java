@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.util.Arrays;
+
+// open addressing table of rows of longs, keyed by two longs without boxing,
+// first part of a key must not be 0, table grows by doubling when filled by three quarters
+public class LongTable {
+
+    private final int stride; // longs per row
+
+    private long[] his;
+    private long[] los;
+    private long[] rows;
+    private int mask;
+    private int count = 0;
+
+    public LongTable(int stride, int capacity) {
+        this.stride = stride;
+        this.allocate(Integer.highestOneBit(Math.max(2, capacity) * 2 - 1));
+    }
+
+    private void allocate(int capacity) {
+        this.his = new long[capacity];
+        this.los = new long[capacity];
+        this.rows = new long[capacity * this.stride];
+        this.mask = capacity - 1;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    public int stride() {
+        return this.stride;
+    }
+
+    // values of all rows, a row starts at slot times stride
+    public long[] rows() {
+        return this.rows;
+    }
+
+    // first part of key of slot, 0 if slot is empty
+    public long hi(int slot) {
+        return this.his[slot];
+    }
+
+    public long lo(int slot) {
+        return this.los[slot];
+    }
+
+    private int home(long hi, long lo) {
+        long h = (lo ^ (hi << 32) ^ hi) * 0x9e3779b97f4a7c15L;
+        return (int)(h >>> 32) & this.mask;
+    }
+
+    private int probe(long hi, long lo) {
+        int i = this.home(hi, lo);
+        while (this.his[i] != 0 && (this.his[i] != hi || this.los[i] != lo)) {
+            i = (i + 1) & this.mask;
+        }
+        return i;
+    }
+
+    // start of row of given key, -1 if not present
+    public int find(long hi, long lo) {
+        int i = this.probe(hi, lo);
+        return this.his[i] == 0 ? -1 : i * this.stride;
+    }
+
+    // start of row of given key, a row of zeros is added if not present
+    public int put(long hi, long lo) {
+        int i = this.probe(hi, lo);
+        if (this.his[i] != 0) return i * this.stride;
+        if (this.count + 1 > (this.mask + 1) * 3 / 4) {
+            this.grow();
+            i = this.probe(hi, lo);
+        }
+        this.his[i] = hi;
+        this.los[i] = lo;
+        this.count++;
+        return i * this.stride;
+    }
+
+    private void grow() {
+        long[] his = this.his, los = this.los, rows = this.rows;
+        this.allocate((this.mask + 1) * 2);
+        for (int k = 0; k < his.length; k++) {
+            if (his[k] == 0) continue;
+            int i = this.probe(his[k], los[k]);
+            this.his[i] = his[k];
+            this.los[i] = los[k];
+            System.arraycopy(rows, k * this.stride, this.rows, i * this.stride, this.stride);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.his, 0);
+        Arrays.fill(this.rows, 0);
+        this.count = 0;
+    }
+
+    // copy of keys and rows
+    public LongTable copy() {
+        LongTable t = new LongTable(this.stride, 2);
+        t.his = this.his.clone();
+        t.los = this.los.clone();
+        t.rows = this.rows.clone();
+        t.mask = this.mask;
+        t.count = this.count;
+        return t;
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+// reusable view of the header of an ieee 802.15.4 frame, fields are decoded on demand
+public class MacFrame {
+
+    // frame types
+    final public static int TYPE_BEACON = 0;
+    final public static int TYPE_DATA = 1;
+    final public static int TYPE_ACK = 2;
+    final public static int TYPE_COMMAND = 3;
+    final public static int TYPE_MULTIPURPOSE = 5;
+    final public static int TYPE_FRAGMENT = 6;
+    final public static int TYPE_EXTENDED = 7;
+
+    // addressing modes
+    final public static int MODE_NONE = 0;
+    final public static int MODE_SHORT = 2;
+    final public static int MODE_EXTENDED = 3;
+
+    // frame versions
+    final public static int VERSION_2003 = 0;
+    final public static int VERSION_2006 = 1;
+    final public static int VERSION_2015 = 2;
+
+    // not present in frame, e.g. not given by addressing mode or frame truncated
+    final public static int ABSENT = -1;
+
+    private byte[] buf;
+    private int off;
+    private int len; // including fcs
+    private boolean valid;
+
+    // offsets of fields relative to frame, decoded once per frame
+    private boolean decoded;
+    private int seq;
+    private int dpan;
+    private int dadr;
+    private int span;
+    private int sadr;
+    private int end;
+
+    public MacFrame() {
+        super();
+    }
+
+    // view given frame including fcs
+    public MacFrame wrap(byte[] buf, int off, int len, boolean valid) {
+        this.buf = buf;
+        this.off = off;
+        this.len = len;
+        this.valid = valid;
+        this.decoded = false;
+        return this;
+    }
+
+    public MacFrame wrap(Capture frame) {
+        return this.wrap(frame.buffer(), frame.offset(), frame.length(), frame.valid());
+    }
+
+    public byte[] buffer() {
+        return this.buf;
+    }
+
+    public int offset() {
+        return this.off;
+    }
+
+    public int length() {
+        return this.len;
+    }
+
+    // fcs is valid?
+    public boolean valid() {
+        return this.valid;
+    }
+
+    // octets of header and payload, without fcs
+    private int limit() {
+        return Math.max(0, this.len - 2);
+    }
+
+    // unsigned byte at given position of frame
+    public int at(int i) {
+        return this.buf[this.off + i] & 0xff;
+    }
+
+    // --- frame control ---
+
+    public int control() {
+        if (this.limit() < 2) return ABSENT;
+        return this.at(0) | (this.at(1) << 8);
+    }
+
+    public int type() {
+        int fc = this.control();
+        return fc < 0 ? ABSENT : fc & 0x07;
+    }
+
+    private boolean flag(int mask) {
+        int fc = this.control();
+        return fc >= 0 && (fc & mask) != 0;
+    }
+
+    public boolean security() {
+        return this.flag(0x0008);
+    }
+
+    public boolean pending() {
+        return this.flag(0x0010);
+    }
+
+    public boolean ackRequest() {
+        return this.flag(0x0020);
+    }
+
+    public boolean panCompression() {
+        return this.flag(0x0040);
+    }
+
+    // sequence number suppressed (2015 only)
+    public boolean sequenceSuppression() {
+        return this.version() == VERSION_2015 && this.flag(0x0100);
+    }
+
+    // information elements present (2015 only)
+    public boolean informationElements() {
+        return this.version() == VERSION_2015 && this.flag(0x0200);
+    }
+
+    public int destinationMode() {
+        int fc = this.control();
+        return fc < 0 ? ABSENT : (fc >> 10) & 0x03;
+    }
+
+    public int version() {
+        int fc = this.control();
+        return fc < 0 ? ABSENT : (fc >> 12) & 0x03;
+    }
+
+    public int sourceMode() {
+        int fc = this.control();
+        return fc < 0 ? ABSENT : (fc >> 14) & 0x03;
+    }
+
+    // --- addressing ---
+
+    public int sequence() {
+        this.decode();
+        return this.seq < 0 ? ABSENT : this.at(this.seq);
+    }
+
+    public int destinationPan() {
+        this.decode();
+        return this.dpan < 0 ? ABSENT : this.at(this.dpan) | (this.at(this.dpan + 1) << 8);
+    }
+
+    // source pan, equal to destination pan if compressed
+    public int sourcePan() {
+        this.decode();
+        if (this.span >= 0) return this.at(this.span) | (this.at(this.span + 1) << 8);
+        if (this.sadr >= 0 && this.panCompression()) return this.destinationPan();
+        return ABSENT;
+    }
+
+    public boolean hasDestination() {
+        this.decode();
+        return this.dadr >= 0;
+    }
+
+    public boolean hasSource() {
+        this.decode();
+        return this.sadr >= 0;
+    }
+
+    // short or extended address, check presence first since any extended address is a valid long
+    public long destination() {
+        this.decode();
+        return this.address(this.dadr, this.destinationMode());
+    }
+
+    public long source() {
+        this.decode();
+        return this.address(this.sadr, this.sourceMode());
+    }
+
+    // octets of header up to addressing fields, ABSENT if truncated
+    public int header() {
+        this.decode();
+        return this.end;
+    }
+
+    private long address(int pos, int mode) {
+        if (pos < 0) return ABSENT;
+        int n = mode == MODE_EXTENDED ? 8 : 2;
+        long value = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            value = (value << 8) | this.at(pos + i);
+        }
+        return value;
+    }
+
+    private static int size(int mode) {
+        return mode == MODE_SHORT ? 2 : mode == MODE_EXTENDED ? 8 : 0;
+    }
+
+    private void decode() {
+        if (this.decoded) return;
+        this.decoded = true;
+        this.seq = this.dpan = this.dadr = this.span = this.sadr = this.end = ABSENT;
+
+        int fc = this.control();
+        if (fc < 0) return;
+        int type = fc & 0x07;
+        int version = (fc >> 12) & 0x03;
+        // layout of multipurpose, fragment and extended frames or of reserved versions differs
+        if (type > TYPE_COMMAND || version > VERSION_2015) return;
+
+        int dm = (fc >> 10) & 0x03;
+        int sm = (fc >> 14) & 0x03;
+        boolean comp = (fc & 0x0040) != 0;
+
+        boolean hasDpan, hasSpan;
+        if (version < VERSION_2015) {
+            hasDpan = dm != MODE_NONE;
+            hasSpan = sm != MODE_NONE && !comp;
+        } else {
+            // table 7-2 of 802.15.4-2015
+            if (dm == MODE_NONE && sm == MODE_NONE) {
+                hasDpan = comp;
+                hasSpan = false;
+            } else if (sm == MODE_NONE) {
+                hasDpan = !comp;
+                hasSpan = false;
+            } else if (dm == MODE_NONE) {
+                hasDpan = false;
+                hasSpan = !comp;
+            } else if (dm == MODE_EXTENDED && sm == MODE_EXTENDED) {
+                hasDpan = !comp;
+                hasSpan = false;
+            } else {
+                hasDpan = true;
+                hasSpan = !comp;
+            }
+        }
+
+        int limit = this.limit();
+        int pos = 2;
+        if (version < VERSION_2015 || (fc & 0x0100) == 0) {
+            if (pos + 1 > limit) return;
+            this.seq = pos;
+            pos += 1;
+        }
+        if (hasDpan) {
+            if (pos + 2 > limit) return;
+            this.dpan = pos;
+            pos += 2;
+        }
+        if (size(dm) > 0) {
+            if (pos + size(dm) > limit) return;
+            this.dadr = pos;
+            pos += size(dm);
+        }
+        if (hasSpan) {
+            if (pos + 2 > limit) return;
+            this.span = pos;
+            pos += 2;
+        }
+        if (size(sm) > 0) {
+            if (pos + size(sm) > limit) return;
+            this.sadr = pos;
+            pos += size(sm);
+        }
+        this.end = pos;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{mac={type=").append(this.type())
+            .append(",version=").append(this.version())
+            .append(",sequence=").append(this.sequence())
+            .append(",security=").append(this.security())
+            .append(",pending=").append(this.pending())
+            .append(",ack=").append(this.ackRequest())
+            .append(",destination={");
+        if (this.destinationPan() >= 0) sb.append("pan=").append(Integer.toHexString(this.destinationPan()));
+        if (this.destinationPan() >= 0 && this.hasDestination()) sb.append(',');
+        if (this.hasDestination()) sb.append("address=").append(Long.toHexString(this.destination()));
+        sb.append("},source={");
+        if (this.sourcePan() >= 0) sb.append("pan=").append(Integer.toHexString(this.sourcePan()));
+        if (this.sourcePan() >= 0 && this.hasSource()) sb.append(',');
+        if (this.hasSource()) sb.append("address=").append(Long.toHexString(this.source()));
+        return sb.append("},valid=").append(this.valid).append("}}").toString();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// counters of the capture path, shared by all devices and updated without locks
+public class Metrics implements MetricsMBean {
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder checksum = new LongAdder();
+    private final LongAdder resync = new LongAdder();
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder[] fcs = new LongAdder[256];
+
+    private final Histogram latency = new Histogram(); // [ns]
+    private final AtomicLong latencyMax = new AtomicLong();
+
+    private final List<FramePipeline> pipelines = new CopyOnWriteArrayList<FramePipeline>();
+
+    // rate of captured frames, updated every second
+    private volatile double rate = 0;
+    private long lastCaptured = 0;
+    private long lastTime = System.nanoTime();
+
+    public Metrics() {
+        for (int i = 0; i < this.fcs.length; i++) this.fcs[i] = new LongAdder();
+    }
+
+    // register as mbean and update rates, print summary to stderr every given seconds (0 for never)
+    public void start(final long interval) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("de.m6c7l.sniffer:type=Metrics"));
+        Thread t = new Thread("metrics") {
+            public void run() {
+                long ticks = 0;
+                while (true) {
+                    try {
+                        Thread.sleep(1000L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Metrics.this.tick();
+                    if (interval > 0 && ++ticks % interval == 0) {
+                        System.err.println(Metrics.this.json());
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private synchronized void tick() {
+        long now = System.nanoTime();
+        long n = this.captured.sum();
+        this.rate = (n - this.lastCaptured) * 1e9 / Math.max(1, now - this.lastTime);
+        this.lastCaptured = n;
+        this.lastTime = now;
+    }
+
+    // pipelines to report drops of
+    public void watch(FramePipeline pipeline) {
+        this.pipelines.add(pipeline);
+    }
+
+    // --- updates ---
+
+    public void read(long n) {
+        this.reads.increment();
+        this.bytes.add(n);
+    }
+
+    public void decoded(long frames, long checksum, long resync) {
+        if (frames != 0) this.frames.add(frames);
+        if (checksum != 0) this.checksum.add(checksum);
+        if (resync != 0) this.resync.add(resync);
+    }
+
+    public void captured(int channel, boolean valid) {
+        this.captured.increment();
+        if (!valid) this.fcs[channel & 0xff].increment();
+    }
+
+    // time [ns] from serial event until frame has been written
+    public void written(long ns) {
+        this.latency.record(ns);
+        long max;
+        while (ns > (max = this.latencyMax.get()) && !this.latencyMax.compareAndSet(max, ns));
+    }
+
+    // --- mbean ---
+
+    public long getBytesRead() {
+        return this.bytes.sum();
+    }
+
+    public long getReads() {
+        return this.reads.sum();
+    }
+
+    public long getFramesDecoded() {
+        return this.frames.sum();
+    }
+
+    public long getChecksumFailures() {
+        return this.checksum.sum();
+    }
+
+    public long getResyncBytes() {
+        return this.resync.sum();
+    }
+
+    public long getFramesCaptured() {
+        return this.captured.sum();
+    }
+
+    public long getFcsFailures() {
+        long n = 0;
+        for (LongAdder a : this.fcs) n += a.sum();
+        return n;
+    }
+
+    public long[] getFcsFailuresPerChannel() {
+        long[] result = new long[27];
+        for (int i = 0; i < result.length; i++) result[i] = this.fcs[i].sum();
+        return result;
+    }
+
+    public long getFramesDropped() {
+        long n = 0;
+        for (FramePipeline p : this.pipelines) n += p.dropped();
+        return n;
+    }
+
+    public double getFramesPerSecond() {
+        return this.rate;
+    }
+
+    public long getLatencyMedian() {
+        return Math.min(this.latency.percentile(0.5), this.latencyMax.get()) / 1000;
+    }
+
+    public long getLatency99() {
+        return Math.min(this.latency.percentile(0.99), this.latencyMax.get()) / 1000;
+    }
+
+    public long getLatencyMax() {
+        return this.latencyMax.get() / 1000;
+    }
+
+    // one line summary
+    public String json() {
+        StringBuilder sb = new StringBuilder("{\"time\":").append(System.currentTimeMillis())
+            .append(",\"bytes\":").append(this.getBytesRead())
+            .append(",\"reads\":").append(this.getReads())
+            .append(",\"frames\":").append(this.getFramesDecoded())
+            .append(",\"checksum\":").append(this.getChecksumFailures())
+            .append(",\"resync\":").append(this.getResyncBytes())
+            .append(",\"captured\":").append(this.getFramesCaptured())
+            .append(",\"dropped\":").append(this.getFramesDropped())
+            .append(",\"fps\":").append(String.format(Locale.ROOT, "%.1f", this.rate))
+            .append(",\"fcs\":{");
+        boolean first = true;
+        for (int i = 0; i < this.fcs.length; i++) {
+            long n = this.fcs[i].sum();
+            if (n == 0) continue;
+            if (!first) sb.append(',');
+            sb.append('"').append(i).append("\":").append(n);
+            first = false;
+        }
+        return sb.append("},\"latency\":{\"p50\":").append(this.getLatencyMedian())
+            .append(",\"p99\":").append(this.getLatency99())
+            .append(",\"max\":").append(this.getLatencyMax())
+            .append("}}").toString();
+    }
+
+}
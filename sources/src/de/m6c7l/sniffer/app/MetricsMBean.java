@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+public interface MetricsMBean {
+
+    public long getBytesRead();
+
+    // number of reads from port, bytes per read tell about the overhead of reading
+    public long getReads();
+
+    public long getFramesDecoded();
+
+    public long getChecksumFailures();
+
+    public long getResyncBytes();
+
+    public long getFramesCaptured();
+
+    public long getFcsFailures();
+
+    // indexed by channel
+    public long[] getFcsFailuresPerChannel();
+
+    public long getFramesDropped();
+
+    public double getFramesPerSecond();
+
+    // time from serial event to output written [us]
+    public long getLatencyMedian();
+
+    public long getLatency99();
+
+    public long getLatencyMax();
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class PcapWriter implements CaptureSink {
+
+    // pcapng block types
+    private static final int SECTION_HEADER = 0x0a0d0d0a;
+    private static final int INTERFACE_DESCRIPTION = 0x00000001;
+    private static final int ENHANCED_PACKET = 0x00000006;
+
+    private static final int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final short LINKTYPE_IEEE802_15_4_TAP = 283;
+
+    // tlvs of ieee 802.15.4 tap header
+    private static final short TAP_FCS_TYPE = 0;
+    private static final short TAP_CHANNEL_ASSIGNMENT = 3;
+    private static final short TAP_START_OF_FRAME_TS = 5;
+    private static final int TAP_LENGTH = 4 + 8 + 8 + 12;
+
+    // enhanced packet block flags: inbound, crc error
+    private static final short EPB_FLAGS = 2;
+    private static final int EPB_INBOUND = 0x00000001;
+    private static final int EPB_CRC_ERROR = 0x01000000;
+
+    // enhanced packet block without packet data
+    private static final int EPB_LENGTH = 28 + 12 + 4;
+
+    private final String name;
+    private final long size;     // [byte] to rotate files after, 0 for no rotation by size
+    private final long duration; // [ms] to rotate files after, 0 for no rotation by time
+
+    private final ByteBuffer buf;
+    private FileChannel out;
+    private int files = 0;
+    private long written = 0;
+    private long opened = 0;
+    private long flushed = 0;
+
+    public PcapWriter(String name) throws IOException {
+        this(name, 0, 0);
+    }
+
+    public PcapWriter(String name, long size, long duration) throws IOException {
+        this.name = name;
+        this.size = size;
+        this.duration = duration;
+        this.buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        this.open();
+    }
+
+    // name of the file currently written
+    public String file() {
+        if (this.size <= 0 && this.duration <= 0) return this.name;
+        int dot = this.name.lastIndexOf('.');
+        if (dot <= this.name.lastIndexOf(File.separatorChar)) dot = this.name.length();
+        return String.format("%s_%05d%s", this.name.substring(0, dot), this.files, this.name.substring(dot));
+    }
+
+    public synchronized void write(Capture frame) throws IOException {
+        if (this.out == null) return; // already closed
+        long now = System.currentTimeMillis();
+        if (((this.size > 0) && (this.written >= this.size)) ||
+            ((this.duration > 0) && (now - this.opened >= this.duration))) {
+            this.close();
+            this.files++;
+            this.open();
+        }
+        int len = frame.length();
+        int pad = (4 - ((TAP_LENGTH + len) & 3)) & 3;
+        int total = EPB_LENGTH + TAP_LENGTH + len + pad;
+        if (this.buf.remaining() < total) this.drain();
+        long time = frame.time();
+        this.buf.putInt(ENHANCED_PACKET);
+        this.buf.putInt(total);
+        this.buf.putInt(0); // interface
+        this.buf.putInt((int)(time >>> 32));
+        this.buf.putInt((int)time);
+        this.buf.putInt(TAP_LENGTH + len);
+        this.buf.putInt(TAP_LENGTH + len);
+        // tap header
+        this.buf.put((byte)0); // version
+        this.buf.put((byte)0);
+        this.buf.putShort((short)TAP_LENGTH);
+        this.buf.putShort(TAP_FCS_TYPE);
+        this.buf.putShort((short)1);
+        this.buf.putInt(1); // 16-bit crc, padded
+        this.buf.putShort(TAP_CHANNEL_ASSIGNMENT);
+        this.buf.putShort((short)3);
+        this.buf.putShort((short)frame.channel());
+        this.buf.putShort((short)0); // page, padded
+        this.buf.putShort(TAP_START_OF_FRAME_TS);
+        this.buf.putShort((short)8);
+        this.buf.putLong(frame.timing() * 1000); // [ns] of capturing device
+        // frame including fcs
+        this.buf.put(frame.buffer(), frame.offset(), len);
+        for (int i = 0; i < pad; i++) this.buf.put((byte)0);
+        // options
+        this.buf.putShort(EPB_FLAGS);
+        this.buf.putShort((short)4);
+        this.buf.putInt(frame.valid() ? EPB_INBOUND : EPB_INBOUND | EPB_CRC_ERROR);
+        this.buf.putInt(0); // end of options
+        this.buf.putInt(total);
+        this.written += total;
+        // keep data on disk reasonably fresh
+        if (now - this.flushed >= 1000) this.drain();
+    }
+
+    public synchronized void flush() throws IOException {
+        this.drain();
+    }
+
+    public synchronized void close() throws IOException {
+        if (this.out != null) {
+            this.drain();
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        this.out = FileChannel.open(new File(this.file()).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.opened = System.currentTimeMillis();
+        this.written = 0;
+        // section header
+        this.buf.putInt(SECTION_HEADER);
+        this.buf.putInt(28);
+        this.buf.putInt(BYTE_ORDER_MAGIC);
+        this.buf.putShort((short)1); // major version
+        this.buf.putShort((short)0); // minor version
+        this.buf.putLong(-1L); // section length not specified
+        this.buf.putInt(28);
+        // interface description, timestamps in microseconds (default resolution)
+        this.buf.putInt(INTERFACE_DESCRIPTION);
+        this.buf.putInt(20);
+        this.buf.putShort(LINKTYPE_IEEE802_15_4_TAP);
+        this.buf.putShort((short)0);
+        this.buf.putInt(0); // no snap length
+        this.buf.putInt(20);
+        this.written += 48;
+        this.drain();
+    }
+
+    private void drain() throws IOException {
+        this.buf.flip();
+        while (this.buf.hasRemaining()) {
+            this.out.write(this.buf);
+        }
+        this.buf.clear();
+        this.flushed = System.currentTimeMillis();
+    }
+
+}
@@ -9,17 +9,40 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class PipeReader extends Thread {
     
     private BufferedReader in;
     private Device device;
+    private Device[] devices; // filter is replaced on all of them
+    private List<Object> reports = new CopyOnWriteArrayList<Object>();
+    private Map<String, Runnable> commands = new ConcurrentHashMap<String, Runnable>();
 
     public PipeReader(Device dev, InputStream in) {
-        this.device = dev;
+        this(new Device[] { dev }, in);
+    }
+
+    // first device is controlled by input, others share the filter only
+    public PipeReader(Device[] devs, InputStream in) {
+        this.device = devs[0];
+        this.devices = devs;
         this.in = new BufferedReader(new InputStreamReader(System.in));            
     }
 
+    // something else to be printed along with the status of device
+    public void report(Object o) {
+        this.reports.add(o);
+    }
+
+    // action to be run when given word is input
+    public void command(String name, Runnable action) {
+        this.commands.put(name, action);
+    }
+
     // process text input of stdin  
     public void run() {
         String s = null;      
@@ -27,11 +50,33 @@ public class PipeReader extends Thread {
             try {
                 s = this.in.readLine();                
                 String[] args = (s!=null ? s.split(" ") : new String[] {});
+                if (args.length == 1 && this.commands.containsKey(args[0])) {
+                    this.commands.get(args[0]).run();
+                    continue;
+                }
+                // replace filter of captured frames, none if no expression given
+                if (args.length > 0 && args[0].equals("filter")) {
+                    try {
+                        String expr = s.substring(args[0].length()).trim();
+                        // compiled for every device, as filters are to be used by one thread at a time
+                        CaptureFilter[] filters = new CaptureFilter[this.devices.length];
+                        for (int i = 0; i < filters.length; i++) {
+                            filters[i] = expr.length() > 0 ? CaptureFilter.compile(expr) : null;
+                        }
+                        for (int i = 0; i < filters.length; i++) this.devices[i].filter(filters[i]);
+                        System.err.println("{filter={time=" + System.currentTimeMillis() + ",value=" + expr + "}}");
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage());
+                    }
+                    continue;
+                }
                 // a new channel (in decimal) to sniff on?
                 if (args.length == 1) {
                     // just an enter, pipe status of device
                     if (args[0].length() == 0) {
                         System.err.println(device);
+                        System.err.println(device.clock());
+                        for (Object o : this.reports) System.err.println(o);
                     } else {
                         // try to set new channel for capturing
                         if (device.channel(s)) {
@@ -6,22 +6,24 @@
 package de.m6c7l.sniffer.app;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
-
-public class PortReader implements SerialPortEventListener {
+public class PortReader implements FrameListener {
 
     private List<FrameListener> listeners = new ArrayList<FrameListener>();
 
-    private InputStream in = null;
+    private ReadableByteChannel in = null;
+
+    private final FrameDecoder decoder = new FrameDecoder(this);
+    private Metrics metrics = null;
+    private final ByteBuffer chunk = ByteBuffer.allocateDirect(4096);
+
+    private volatile Thread thread = null;
 
-    public PortReader(InputStream in) {
+    public PortReader(ReadableByteChannel in) {
         this.in = in;
     }
 
@@ -33,51 +35,89 @@ public class PortReader implements SerialPortEventListener {
         this.listeners.remove(listener);
     }
 
-    private void process(byte[] buf) {
-        if (buf.length < 4)
+    // counters to be updated, if any
+    public void metrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // number of bytes skipped while resynchronizing to the frame structure
+    public long discarded() {
+        return this.decoder.discarded();
+    }
+
+    // pass raw bytes to the decoder, partial frames are kept until completed
+    public void process(byte[] buf, int off, int len) {
+        if (this.metrics == null) {
+            this.decoder.write(buf, off, len);
             return;
-        if (buf[0] == Device.MESSAGE_START) {
-            // exactly one frame
-            if (buf[1] == buf.length - 2) {
-                if (FrameUtility.checksum(buf) == buf[buf.length - 1]) {
-                    // checksum seems ok
-                    for (FrameListener fl : this.listeners) {
-                        fl.receive(buf[2], Arrays.copyOfRange(buf, 3, buf.length - 1));
-                    }
-                }
-            // more than one frame
-            } else if (buf[1] < buf.length - 2) {
-                byte[] fub = buf;
-                while (fub.length > 0) {
-                    process(Arrays.copyOfRange(fub, 0, fub[1] + 2)); // again, exactly one frame
-                    fub = Arrays.copyOfRange(fub, fub[1] + 2, fub.length); // process of subsequent frame
-                }
-            }
         }
+        long frames = this.decoder.frames();
+        long failures = this.decoder.failures();
+        long discarded = this.decoder.discarded();
+        this.decoder.write(buf, off, len);
+        this.metrics.read(len);
+        this.metrics.decoded(this.decoder.frames() - frames,
+                this.decoder.failures() - failures, this.decoder.discarded() - discarded);
+    }
+
+    public void process(ByteBuffer buf) {
+        if (this.metrics == null) {
+            this.decoder.write(buf);
+            return;
+        }
+        int len = buf.remaining();
+        long frames = this.decoder.frames();
+        long failures = this.decoder.failures();
+        long discarded = this.decoder.discarded();
+        this.decoder.write(buf);
+        this.metrics.read(len);
+        this.metrics.decoded(this.decoder.frames() - frames,
+                this.decoder.failures() - failures, this.decoder.discarded() - discarded);
+    }
+
+    // called by the decoder for every frame having a valid checksum
+    public void receive(byte id, byte[] frame) {
+        for (FrameListener fl : this.listeners) {
+            fl.receive(id, frame);
+        }
+    }
+
+    // read by a thread of its own if the transport does not pass bytes on its own, reads block until bytes arrive or time out
+    public synchronized void start() {
+        if (this.thread != null) return;
+        this.thread = new Thread("reader") {
+            public void run() {
+                PortReader.this.read(this);
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
     }
 
-    public void serialEvent(SerialPortEvent event) {
-        switch (event.getEventType()) {
-        case SerialPortEvent.OUTPUT_BUFFER_EMPTY:
-        case SerialPortEvent.BI:
-        case SerialPortEvent.OE:
-        case SerialPortEvent.FE:
-        case SerialPortEvent.PE:
-        case SerialPortEvent.CD:
-        case SerialPortEvent.CTS:
-        case SerialPortEvent.DSR:
-        case SerialPortEvent.RI: break;
-        case SerialPortEvent.DATA_AVAILABLE:
-            ByteBuffer buf = ByteBuffer.allocate(1024);
+    // stop reading thread, to be called after closing the transport
+    public synchronized void stop() {
+        Thread t = this.thread;
+        this.thread = null;
+        if (t != null) {
+            t.interrupt();
             try {
-                while ((in.available()) > 0) buf.put((byte) in.read());
-            } catch (IOException e) {}
-            buf.flip();
-            byte[] b = new byte[buf.limit()];
-            buf.get(b);
-            process(b);
-            break;
+                t.join(1000L);
+            } catch (InterruptedException ignored) {}
         }
     }
 
+    private void read(Thread self) {
+        try {
+            while (this.thread == self) {
+                this.chunk.clear();
+                int len = this.in.read(this.chunk);
+                if (len < 0) break;
+                if (len > 0) {
+                    this.chunk.flip();
+                    this.process(this.chunk);
+                }
+            }
+        } catch (IOException e) {}
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+
+// pseudo terminal, e.g. created by socat for a device attached elsewhere,
+// switched to raw mode by stty to pass all bytes unaltered
+public class PtyTransport extends FileTransport {
+
+    private final File path;
+
+    public PtyTransport(File path) {
+        super(path, path);
+        this.path = path;
+    }
+
+    public void open() throws IOException {
+        if (!this.path.exists()) throw new IOException("no such file: " + this.path);
+        Process p = new ProcessBuilder("stty", "-F", this.path.getPath(), "raw", "-echo")
+                .redirectErrorStream(true).start();
+        try {
+            if (p.waitFor() != 0) throw new IOException("not a terminal: " + this.path);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        super.open();
+    }
+
+    public String toString() {
+        return "pty={path=" + this.path + "}";
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// frames of stored captures within a time range and passing a filter, streamed to a sink:
+// capture stores are looked up by their index, text output is scanned in parts by several threads,
+// binary records are scanned in sequence
+public class Query {
+
+    // bytes of text scanned by one thread at once
+    private static final long PART = 16L * 1024 * 1024;
+
+    private final long from; // [us]
+    private final long to;
+    private final CaptureFilter filter;
+    private final CaptureSink out;
+    private final int threads;
+
+    private long matched = 0;
+    private long scanned = 0;
+
+    // frames matching in a part of a text file, as delta (8) followed by binary record
+    private static class Matches implements CaptureSink {
+
+        private final long from;
+        private final long to;
+        private ByteBuffer buf = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        long scanned = 0;
+
+        Matches(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public void write(Capture frame) {
+            if (frame.time() < this.from || frame.time() > this.to) return;
+            if (this.buf.remaining() < 8 + CaptureRecord.size(frame)) {
+                ByteBuffer b = ByteBuffer.allocate(this.buf.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                this.buf.flip();
+                this.buf = b.put(this.buf);
+            }
+            this.buf.putLong(frame.delta());
+            CaptureRecord.encode(frame, this.buf);
+        }
+
+        public void flush() {}
+
+        public void close() {}
+
+    }
+
+    // time range [us] is inclusive, filter may be null
+    public Query(long from, long to, CaptureFilter filter, CaptureSink out) {
+        this(from, to, filter, out, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Query(long from, long to, CaptureFilter filter, CaptureSink out, int threads) {
+        this.from = from;
+        this.to = to;
+        this.filter = filter;
+        this.out = out;
+        this.threads = Math.max(1, threads);
+    }
+
+    public long matched() {
+        return this.matched;
+    }
+
+    // frames read to find the ones matching
+    public long scanned() {
+        return this.scanned;
+    }
+
+    // capture store, compressed frames, text output or binary records
+    public void run(File source) throws IOException {
+        if (source.isDirectory()) {
+            this.store(source);
+        } else if (CompressedReader.compressed(source)) {
+            this.compressed(source);
+        } else if (Replay.textual(source)) {
+            this.text(source);
+        } else {
+            this.binary(source);
+        }
+        this.out.flush();
+    }
+
+    // pages of interest only, given by time and by address if implied by the filter
+    public void store(File dir) throws IOException {
+        CaptureStore store = new CaptureStore(dir);
+        CaptureSink sink = new CaptureSink() {
+            public void write(Capture frame) throws IOException {
+                Query.this.scanned++;
+                Query.this.match(frame);
+            }
+            public void flush() {}
+            public void close() {}
+        };
+        Long address = this.filter != null ? this.filter.address() : null;
+        try {
+            if (address != null) {
+                store.query(this.from, this.to, address, sink);
+            } else {
+                store.query(this.from, this.to, MacFrame.MODE_NONE, 0, sink);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    public void binary(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BinaryReader reader = new BinaryReader(ch);
+            Capture capture;
+            while ((capture = reader.next()) != null) {
+                this.scanned++;
+                if (capture.time() >= this.from && capture.time() <= this.to) this.match(capture);
+            }
+        }
+    }
+
+    public void compressed(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CompressedReader reader = new CompressedReader(ch);
+            Capture capture;
+            while ((capture = reader.next()) != null) {
+                this.scanned++;
+                if (capture.time() >= this.from && capture.time() <= this.to) this.match(capture);
+            }
+        }
+    }
+
+    // parts are scanned in parallel, matches are passed on in order of the parts
+    public void text(final File file) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "query");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Deque<Future<Matches>> pending = new ArrayDeque<Future<Matches>>();
+        long size = file.length();
+        try {
+            for (long pos = 0; pos < size || !pending.isEmpty(); ) {
+                // a few parts ahead, keeping matches held in memory bounded
+                while (pos < size && pending.size() < 2 * this.threads) {
+                    final long start = pos;
+                    final long end = Math.min(size, pos + PART);
+                    pending.add(pool.submit(new Callable<Matches>() {
+                        public Matches call() throws IOException {
+                            Matches m = new Matches(Query.this.from, Query.this.to);
+                            Device device = new Device();
+                            // filters are to be used by one thread at a time, compiled again per part
+                            if (Query.this.filter != null) device.filter(CaptureFilter.compile(Query.this.filter.expression()));
+                            device.addSink(m);
+                            Replay replay = new Replay(device);
+                            replay.text(file, start, end);
+                            m.scanned = replay.frames();
+                            return m;
+                        }
+                    }));
+                    pos = end;
+                }
+                this.emit(pending.poll().get());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void emit(Matches m) throws IOException {
+        this.scanned += m.scanned;
+        ByteBuffer buf = m.buf;
+        buf.flip();
+        Capture capture = new Capture();
+        byte[] frame = new byte[0xff];
+        while (buf.hasRemaining()) {
+            long delta = buf.getLong();
+            int pos = buf.position();
+            CaptureRecord.decode(buf, pos, capture, frame);
+            capture.set(capture.channel(), capture.stamp(), capture.time(), capture.timing(), delta,
+                    frame, 0, capture.length(), capture.valid());
+            buf.position(pos + CaptureRecord.HEADER + capture.length());
+            this.matched++;
+            this.out.write(capture);
+        }
+    }
+
+    private void match(Capture frame) throws IOException {
+        if (this.filter != null && !this.filter.test(frame)) return;
+        this.matched++;
+        this.out.write(frame);
+    }
+
+    public String toString() {
+        return "{query={scanned=" + this.scanned + ",matched=" + this.matched + "}}";
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// offline processing of raw serial dumps and text output, mapped into memory piecewise
+public class Replay {
+
+    // size of pieces mapped at once, small enough for 32-bit platforms
+    private static final long CHUNK = 64L * 1024 * 1024;
+
+    private final Device device;
+
+    private long frames = 0;
+    private long discarded = 0;
+    private long bytes = 0;
+
+    // channel, stamp and delta of line parsed last
+    private final long[] num = new long[3];
+
+    public Replay(Device device) {
+        this.device = device;
+    }
+
+    public long frames() {
+        return this.frames;
+    }
+
+    // bytes of raw dumps or lines of text not understood
+    public long discarded() {
+        return this.discarded;
+    }
+
+    public long bytes() {
+        return this.bytes;
+    }
+
+    // raw dump or text output? text consists of digits, hex, blanks, stars, tags and line feeds only
+    public static boolean textual(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 256));
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (!((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || b == ' ' || b == '*' || b == 'R' || b == '+' || b == Device.LF || b == Device.CR))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    // byte stream as read from the port, passed through the same decoding as live capture
+    public void raw(File file) throws IOException {
+        FrameDecoder decoder = new FrameDecoder(this.device, 1 << 16);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += CHUNK) {
+                decoder.write(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(CHUNK, size - pos)));
+            }
+        }
+        this.frames += decoder.frames();
+        this.discarded += decoder.discarded();
+        this.bytes += file.length();
+    }
+
+    // lines of text output, passed to the sinks of the device
+    public void text(File file) throws IOException {
+        this.text(file, 0, Long.MAX_VALUE);
+    }
+
+    // lines starting within given range of bytes, for a file processed in parts
+    public void text(File file, long from, long to) throws IOException {
+        Capture capture = new Capture();
+        byte[] frame = new byte[0xff];
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long pos = from;
+            if (pos > 0) {
+                // skip line started before
+                pos = this.next(ch, pos - 1, size);
+            }
+            long begin = pos;
+            while (pos < size && pos < to) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(CHUNK, size - pos));
+                int limit = buf.limit();
+                int start = 0;
+                for (int i = 0; i < limit && pos + start < to; i++) {
+                    if (buf.get(i) == Device.LF) {
+                        this.line(buf, start, i, capture, frame);
+                        start = i + 1;
+                    }
+                }
+                if (pos + start >= to) {
+                    pos += start;
+                    break;
+                }
+                if (pos + limit == size) {
+                    // last line without line feed
+                    if (start < limit) this.line(buf, start, limit, capture, frame);
+                    start = limit;
+                } else if (start == 0) {
+                    throw new IOException("line too long at " + pos);
+                }
+                pos += start; // continue with incomplete line
+            }
+            this.bytes += pos - begin;
+        }
+    }
+
+    // position following the next line feed at or after given position
+    private long next(FileChannel ch, long pos, long size) throws IOException {
+        while (pos < size) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(CHUNK, size - pos));
+            for (int i = 0; i < buf.limit(); i++) {
+                if (buf.get(i) == Device.LF) return pos + i + 1;
+            }
+            pos += buf.limit();
+        }
+        return size;
+    }
+
+    // parse "channel stamp delta hex ... [*] [R|+n]" without creating strings, tags are left to be tracked again
+    private void line(MappedByteBuffer buf, int i, int end, Capture capture, byte[] frame) {
+        long[] num = this.num;
+        int n = 0;
+        int len = 0;
+        boolean ok = true;
+        while (i < end && ok) {
+            byte b = buf.get(i);
+            if (b == ' ' || b == Device.CR) {
+                i++;
+            } else if (n < 3) {
+                long v = 0;
+                int k = i;
+                while (i < end && (b = buf.get(i)) >= '0' && b <= '9') {
+                    v = v * 10 + (b - '0');
+                    i++;
+                }
+                ok = i > k;
+                num[n++] = v;
+            } else if (b == '*' || b == 'R') {
+                i++;
+            } else if (b == '+') {
+                i++;
+                while (i < end && (b = buf.get(i)) >= '0' && b <= '9') i++;
+            } else {
+                int hi = Character.digit(b, 16);
+                int lo = i + 1 < end ? Character.digit(buf.get(i + 1), 16) : -1;
+                ok = (hi >= 0) && (lo >= 0) && (len < frame.length);
+                if (ok) frame[len++] = (byte)((hi << 4) | lo);
+                i += 2;
+            }
+        }
+        if (!ok || n < 3 || len < 2) {
+            if (end > i || n > 0) this.discarded++;
+            return;
+        }
+        // fcs is checked again rather than relying on the marker
+        capture.set((int)num[0], num[1], num[1] * 1000, 0, num[2], frame, 0, len, FrameUtility.verify(frame, 0, len));
+        this.frames++;
+        this.device.dispatch(capture);
+    }
+
+    public String toString() {
+        return "{replay={frames=" + this.frames + ",discarded=" + this.discarded + ",bytes=" + this.bytes + "}}";
+    }
+
+}
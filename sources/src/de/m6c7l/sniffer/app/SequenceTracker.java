@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.util.Locale;
+
+// tracks mac sequence numbers per source (pan and address) to tell retransmissions and missed frames,
+// sources are kept in an open addressing table of fixed size, least recently seen ones are evicted by a clock
+public class SequenceTracker implements CaptureSink {
+
+    // results of tracking a frame, a positive result is the number of frames missed before
+    final public static int NEW = 0;
+    final public static int RETRY = -1;
+    final public static int UNTRACKED = -2; // no source or sequence number, or bad fcs
+
+    private final MacFrame mac = new MacFrame();
+
+    private final int mask;
+    private final int limit; // sources kept at most
+
+    // key of a source: addressing mode and pan, 0 for empty slots, and address
+    private final long[] keys;
+    private final long[] addresses;
+    private final int[] sequences;
+    private final long[] frames;
+    private final long[] retries;
+    private final long[] lost;
+    private final boolean[] referenced;
+
+    private int count = 0;
+    private int hand = 0;
+
+    // totals
+    private long tracked = 0;
+    private long untracked = 0;
+    private long retried = 0;
+    private long gaps = 0;
+    private long missed = 0;
+    private long evicted = 0;
+
+    public SequenceTracker() {
+        this(4096);
+    }
+
+    public SequenceTracker(int sources) {
+        // power of two, filled by three quarters at most
+        this.limit = Math.max(1, sources);
+        int capacity = 2;
+        while (capacity * 3L < this.limit * 4L) capacity *= 2;
+        this.mask = capacity - 1;
+        this.keys = new long[capacity];
+        this.addresses = new long[capacity];
+        this.sequences = new int[capacity];
+        this.frames = new long[capacity];
+        this.retries = new long[capacity];
+        this.lost = new long[capacity];
+        this.referenced = new boolean[capacity];
+    }
+
+    // NEW, RETRY, UNTRACKED or number of frames missed
+    public synchronized int track(Capture frame) {
+        MacFrame m = this.mac.wrap(frame);
+        int seq = m.sequence();
+        if (!frame.valid() || seq < 0 || !m.hasSource()) {
+            this.untracked++;
+            return UNTRACKED;
+        }
+        this.tracked++;
+        // pan is not present in some frames of 2015, kept as 0xffff then
+        long key = key(m.sourcePan(), m.sourceMode());
+        long address = m.source();
+        int i = this.find(key, address);
+        if (this.keys[i] == 0) {
+            if (this.count >= this.limit) {
+                this.evict();
+                i = this.find(key, address);
+            }
+            this.keys[i] = key;
+            this.addresses[i] = address;
+            this.sequences[i] = seq;
+            this.frames[i] = 1;
+            this.retries[i] = 0;
+            this.lost[i] = 0;
+            this.referenced[i] = true;
+            this.count++;
+            return NEW;
+        }
+        this.referenced[i] = true;
+        this.frames[i]++;
+        int last = this.sequences[i];
+        this.sequences[i] = seq;
+        if (seq == last) {
+            this.retries[i]++;
+            this.retried++;
+            return RETRY;
+        }
+        int gap = (seq - last - 1) & 0xff;
+        // sequence going back, most likely a restarted source or frames out of order
+        if (gap >= 0x80) return NEW;
+        if (gap > 0) {
+            this.lost[i] += gap;
+            this.gaps++;
+            this.missed += gap;
+        }
+        return gap;
+    }
+
+    // result is kept by the frame for sinks following
+    public void write(Capture frame) throws IOException {
+        frame.track(this.track(frame));
+    }
+
+    public void flush() throws IOException {}
+
+    public void close() throws IOException {}
+
+    // --- counters of a source, 0 if not tracked ---
+
+    public synchronized long frames(int pan, int mode, long address) {
+        int i = this.find(key(pan, mode), address);
+        return this.keys[i] == 0 ? 0 : this.frames[i];
+    }
+
+    public synchronized long retries(int pan, int mode, long address) {
+        int i = this.find(key(pan, mode), address);
+        return this.keys[i] == 0 ? 0 : this.retries[i];
+    }
+
+    public synchronized long lost(int pan, int mode, long address) {
+        int i = this.find(key(pan, mode), address);
+        return this.keys[i] == 0 ? 0 : this.lost[i];
+    }
+
+    // number of sources tracked
+    public synchronized int sources() {
+        return this.count;
+    }
+
+    // --- table ---
+
+    private static long key(int pan, int mode) {
+        return ((long)(mode & 0x03) << 16) | (pan & 0xffff);
+    }
+
+    private int home(long key, long address) {
+        long h = (address ^ (key << 48) ^ key) * 0x9e3779b97f4a7c15L;
+        return (int)(h >>> 32) & this.mask;
+    }
+
+    // slot of given source, or empty slot to put it into
+    private int find(long key, long address) {
+        int i = this.home(key, address);
+        while (this.keys[i] != 0 && (this.keys[i] != key || this.addresses[i] != address)) {
+            i = (i + 1) & this.mask;
+        }
+        return i;
+    }
+
+    // remove a source not seen since the hand passed it the last time
+    private void evict() {
+        while (true) {
+            int i = this.hand;
+            this.hand = (this.hand + 1) & this.mask;
+            if (this.keys[i] == 0) continue;
+            if (this.referenced[i]) {
+                this.referenced[i] = false;
+                continue;
+            }
+            this.remove(i);
+            this.evicted++;
+            return;
+        }
+    }
+
+    // free a slot, moving following entries back to keep probing sequences without holes
+    private void remove(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & this.mask;
+            if (this.keys[j] == 0) break;
+            int k = this.home(this.keys[j], this.addresses[j]);
+            // entry stays if its home lies cyclically within (i, j]
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) continue;
+            this.keys[i] = this.keys[j];
+            this.addresses[i] = this.addresses[j];
+            this.sequences[i] = this.sequences[j];
+            this.frames[i] = this.frames[j];
+            this.retries[i] = this.retries[j];
+            this.lost[i] = this.lost[j];
+            this.referenced[i] = this.referenced[j];
+            i = j;
+        }
+        this.keys[i] = 0;
+        this.count--;
+    }
+
+    public synchronized String toString() {
+        long expected = this.tracked - this.retried + this.missed;
+        return "{tracker={sources=" + this.count + ",frames=" + this.tracked + ",untracked=" + this.untracked +
+               ",retries=" + this.retried + ",gaps=" + this.gaps + ",lost=" + this.missed +
+               ",loss=" + (expected > 0 ? String.format(Locale.ROOT, "%.4f", (double)this.missed / expected) : "") +
+               ",evicted=" + this.evicted + "}}";
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.TooManyListenersException;
+
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+import gnu.io.UnsupportedCommOperationException;
+
+// serial port by rxtx
+public class SerialTransport implements Transport {
+
+    private final String port;
+
+    private SerialPort serial;
+    private InputStream in;
+    private OutputStream out;
+    private ReadableByteChannel input;
+    private WritableByteChannel output;
+
+    public SerialTransport(String port) {
+        this.port = port;
+    }
+
+    public void open() throws IOException {
+        try {
+            CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(this.port);
+            if (portIdentifier.isCurrentlyOwned()) {
+                throw new IOException("port in use: " + this.port);
+            }
+            CommPort commPort = portIdentifier.open(Device.class.getName(), 5000);
+            if (!(commPort instanceof SerialPort)) {
+                commPort.close();
+                throw new IOException("no such port: " + this.port);
+            }
+            this.serial = (SerialPort) commPort;
+            this.serial.setSerialPortParams(460800, SerialPort.DATABITS_8, SerialPort.STOPBITS_1,
+                    SerialPort.PARITY_NONE);
+            this.serial.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
+            this.serial.setDTR(false);
+            // reads return as soon as some bytes arrived, or after a timeout
+            this.serial.enableReceiveThreshold(1);
+            this.serial.enableReceiveTimeout(100);
+        } catch (NoSuchPortException e) {
+            throw new IOException("no such port: " + this.port);
+        } catch (PortInUseException e) {
+            throw new IOException("port in use: " + this.port);
+        } catch (UnsupportedCommOperationException e) {
+            this.close();
+            throw new IOException("unsupported settings: " + this.port);
+        }
+        this.in = this.serial.getInputStream();
+        this.out = this.serial.getOutputStream();
+        this.input = Channels.newChannel(this.in);
+        this.output = new WritableByteChannel() {
+            private final byte[] arr = new byte[0xff + 4];
+            public int write(ByteBuffer src) throws IOException {
+                int len = Math.min(src.remaining(), this.arr.length);
+                src.get(this.arr, 0, len);
+                SerialTransport.this.out.write(this.arr, 0, len);
+                SerialTransport.this.out.flush();
+                return len;
+            }
+            public boolean isOpen() {
+                return SerialTransport.this.serial != null;
+            }
+            public void close() throws IOException {
+                SerialTransport.this.out.close();
+            }
+        };
+    }
+
+    public ReadableByteChannel input() {
+        return this.input;
+    }
+
+    public WritableByteChannel output() {
+        return this.output;
+    }
+
+    // bulk reads of all bytes available on serial events
+    public boolean listen(final PortReader reader) throws IOException {
+        try {
+            this.serial.addEventListener(new SerialPortEventListener() {
+                private final byte[] chunk = new byte[4096];
+                public void serialEvent(SerialPortEvent event) {
+                    if (event.getEventType() != SerialPortEvent.DATA_AVAILABLE) return;
+                    try {
+                        int avail;
+                        while ((avail = SerialTransport.this.in.available()) > 0) {
+                            int len = SerialTransport.this.in.read(this.chunk, 0, Math.min(avail, this.chunk.length));
+                            if (len <= 0) break;
+                            reader.process(this.chunk, 0, len);
+                        }
+                    } catch (IOException e) {}
+                }
+            });
+        } catch (TooManyListenersException e) {
+            throw new IOException(e);
+        }
+        this.serial.notifyOnDataAvailable(true);
+        return true;
+    }
+
+    public void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+        if (this.in != null) {
+            this.in.close();
+            this.in = null;
+        }
+        if (this.serial != null) {
+            this.serial.notifyOnDataAvailable(false);
+            this.serial.removeEventListener();
+            this.serial.close();
+            this.serial = null;
+        }
+    }
+
+    public String toString() {
+        String s = "serial={port=%s,settings={baudate=%s,databits=%s,stopbits=%s,parity=%s},flowcontrol=%s}";
+        if (this.serial == null) return String.format(s, this.port, "", "", "", "", "");
+        return String.format(s, this.serial.getName(),
+                this.serial.getBaudRate(), this.serial.getDataBits(),
+                this.serial.getStopBits(), this.serial.getParity(),
+                this.serial.getFlowControlMode());
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+// software model of a BitCatcher device: answers commands and emits captured frames at a given rate,
+// attached in-process as transport or to any pair of channels (e.g. one end of a pty pair)
+public class Simulator implements Transport, FrameListener {
+
+    // size of the transmit fifo of the device, frames captured while it is full are lost
+    private static final int FIFO = 8192;
+
+    private final byte type; // as in reply of status request: 0x01 DE, 0x02 RZ
+
+    private volatile double rate = 100;    // [1/s] frames captured on average
+    private volatile int min = 5;          // [byte] size of ieee 802.15.4 frames, including fcs
+    private volatile int max = 127;
+    private volatile double errors = 0;    // share of frames having a bad fcs
+    private volatile int burst = 1;        // frames captured back-to-back
+
+    private volatile boolean enabled = false;
+    private volatile int channel = 11;
+    private volatile boolean running = false;
+
+    private final FrameDecoder decoder = new FrameDecoder(this);
+    private final ByteBuffer fifo = ByteBuffer.allocateDirect(FIFO);
+    private final Random random;
+    private final long zero = System.nanoTime();
+
+    private ReadableByteChannel in;
+    private WritableByteChannel out;
+    private Pipe.SourceChannel input;  // host side, in-process only
+    private Pipe.SinkChannel output;
+
+    private long emitted = 0;
+    private long overflow = 0;
+    private long sent = 0;
+
+    public Simulator(String type) {
+        this(type, 0);
+    }
+
+    public Simulator(String type, long seed) {
+        this.type = (byte)("DE".equalsIgnoreCase(type) ? 0x01 : 0x02);
+        this.random = new Random(seed);
+    }
+
+    // frames per second, may be changed while running
+    public void rate(double rate) {
+        this.rate = rate;
+    }
+
+    // frames are of uniformly distributed size within given bounds (5 to 127 bytes)
+    public void sizes(int min, int max) {
+        this.min = Math.max(5, Math.min(min, 127));
+        this.max = Math.max(this.min, Math.min(max, 127));
+    }
+
+    public void errors(double ratio) {
+        this.errors = ratio;
+    }
+
+    public void burst(int frames) {
+        this.burst = Math.max(1, frames);
+    }
+
+    // number of frames sent to the host
+    public synchronized long emitted() {
+        return this.emitted;
+    }
+
+    // number of frames lost as the host did not keep up
+    public synchronized long overflow() {
+        return this.overflow;
+    }
+
+    // number of messages transmitted on request of the host
+    public synchronized long sent() {
+        return this.sent;
+    }
+
+    // --- transport, in-process ---
+
+    public void open() throws IOException {
+        Pipe up = Pipe.open();
+        Pipe down = Pipe.open();
+        this.input = up.source();
+        this.output = down.sink();
+        this.attach(down.source(), up.sink());
+    }
+
+    public ReadableByteChannel input() {
+        return this.input;
+    }
+
+    public WritableByteChannel output() {
+        return this.output;
+    }
+
+    public boolean listen(PortReader reader) {
+        return false;
+    }
+
+    public void close() throws IOException {
+        this.running = false;
+        synchronized (this) {
+            this.notifyAll();
+        }
+        if (this.output != null) this.output.close();
+        if (this.input != null) this.input.close();
+        if (this.in != null) this.in.close();
+        if (this.out != null) this.out.close();
+    }
+
+    // --- device ---
+
+    // run device on given channels, commands are read from in, replies and frames are written to out
+    public void attach(ReadableByteChannel in, WritableByteChannel out) {
+        this.in = in;
+        this.out = out;
+        this.running = true;
+        this.thread("simulator-commands", new Runnable() {
+            public void run() {
+                Simulator.this.commands();
+            }
+        });
+        this.thread("simulator-capture", new Runnable() {
+            public void run() {
+                Simulator.this.capture();
+            }
+        });
+        this.thread("simulator-transmit", new Runnable() {
+            public void run() {
+                Simulator.this.transmit();
+            }
+        });
+    }
+
+    private void thread(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void commands() {
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        try {
+            while (this.running) {
+                buf.clear();
+                if (this.in.read(buf) < 0) break;
+                buf.flip();
+                this.decoder.write(buf);
+            }
+        } catch (IOException e) {}
+        this.running = false;
+    }
+
+    // called by the decoder for every command received
+    public void receive(byte id, byte[] cnt) {
+        byte[] reply = new byte[0];
+        switch (id) {
+        case Device.RESET_DEVICE:
+            this.enabled = false;
+            this.channel = 11;
+            break;
+        case Device.AQUIRE_STATUS:
+            reply = new byte[] { this.type };
+            break;
+        case Device.SET_CHANNEL_CHANNELPAGE:
+            int ch = cnt.length > 0 ? cnt[0] & 0xff : -1;
+            int page = cnt.length > 1 ? cnt[1] & 0xff : 0;
+            // 2.4 GHz band only
+            if (page == 0 && ch >= 11 && ch <= 26) {
+                this.channel = ch;
+                reply = new byte[] { (byte)ch };
+            } else {
+                reply = new byte[] { (byte)0xfa };
+            }
+            break;
+        case Device.ENABLE_CAPTURE:
+            this.enabled = true;
+            break;
+        case Device.DISABLE_CAPTURE:
+            this.enabled = false;
+            break;
+        case Device.SEND_MESSAGE:
+            synchronized (this) {
+                this.sent++;
+            }
+            reply = new byte[] { 0x00 };
+            break;
+        default:
+            return;
+        }
+        ByteBuffer frame = FrameUtility.prepare((byte)(id + 1), reply);
+        synchronized (this) {
+            // replies are not dropped, wait for room
+            while (this.running && this.fifo.remaining() < frame.remaining()) {
+                try {
+                    this.wait(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            this.fifo.put(frame);
+            this.notifyAll();
+        }
+    }
+
+    // frames captured at given rate, in bursts if set, timing of frames not met is caught up
+    private void capture() {
+        byte[] frame = new byte[3 + 8 + 127 + 1];
+        long next = System.nanoTime();
+        int seq = 0;
+        while (this.running) {
+            if (!this.enabled || this.rate <= 0) {
+                LockSupport.parkNanos(1000000L);
+                next = System.nanoTime();
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            int n = this.burst;
+            synchronized (this) {
+                for (int i = 0; i < n; i++) {
+                    int len = this.frame(frame, seq++);
+                    if (this.fifo.remaining() < len) {
+                        this.overflow++;
+                    } else {
+                        this.fifo.put(frame, 0, len);
+                        this.emitted++;
+                    }
+                }
+                this.notifyAll();
+            }
+            next += (long)(n * 1e9 / this.rate);
+        }
+    }
+
+    // serial frame of captured data: header of 8 bytes (timing, channel) and ieee 802.15.4 frame
+    private int frame(byte[] buf, int seq) {
+        int size = this.min + this.random.nextInt(this.max - this.min + 1);
+        long timing = (System.nanoTime() - this.zero) / 1000;
+        int len = 3 + 8 + size + 1;
+        buf[0] = Device.MESSAGE_START;
+        buf[1] = (byte)(8 + size + 2);
+        buf[2] = Device.DATA_CAPTURED;
+        for (int i = 3; i < 11; i++) buf[i] = 0;
+        if (this.type == 0x01) {
+            for (int i = 0; i < 4; i++) buf[3 + i] = (byte)(timing >> (8 * i));
+        } else {
+            for (int i = 0; i < 3; i++) buf[4 + i] = (byte)(timing >> (8 * i));
+        }
+        buf[3 + 5] = (byte)this.channel;
+        int off = 11;
+        if (size < 11) {
+            // acknowledgement
+            buf[off] = 0x02;
+            buf[off + 1] = 0x00;
+            buf[off + 2] = (byte)seq;
+            for (int i = 3; i < size - 2; i++) buf[off + i] = (byte)this.random.nextInt();
+        } else {
+            // data frame, short addresses, pan id compression, random payload
+            buf[off] = 0x41;
+            buf[off + 1] = (byte)0x88;
+            buf[off + 2] = (byte)seq;
+            buf[off + 3] = (byte)0xcd;
+            buf[off + 4] = (byte)0xab;
+            buf[off + 5] = (byte)this.random.nextInt(8);
+            buf[off + 6] = 0x00;
+            buf[off + 7] = (byte)this.random.nextInt(8);
+            buf[off + 8] = 0x00;
+            for (int i = 9; i < size - 2; i++) buf[off + i] = (byte)this.random.nextInt();
+        }
+        int crc = FrameUtility.crc(buf, off, size - 2);
+        if (this.errors > 0 && this.random.nextDouble() < this.errors) crc = ~crc;
+        buf[off + size - 2] = (byte)crc;
+        buf[off + size - 1] = (byte)(crc >>> 8);
+        byte cs = (byte)0xff;
+        for (int i = 1; i < len - 1; i++) cs -= buf[i];
+        buf[len - 1] = cs;
+        return len;
+    }
+
+    // fifo drained to the host, as fast as it reads
+    private void transmit() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(FIFO);
+        try {
+            while (this.running) {
+                synchronized (this) {
+                    while (this.running && this.fifo.position() == 0) this.wait(100);
+                    this.fifo.flip();
+                    buf.clear();
+                    buf.put(this.fifo);
+                    this.fifo.clear();
+                    this.notifyAll();
+                }
+                buf.flip();
+                while (buf.hasRemaining()) this.out.write(buf);
+            }
+        } catch (IOException | InterruptedException e) {}
+        this.running = false;
+    }
+
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "sim={type=%s,rate=%.1f,sizes=%d-%d,errors=%.3f,burst=%d,emitted=%d,overflow=%d,sent=%d}",
+                this.type == 0x01 ? "DE" : "RZ", this.rate, this.min, this.max, this.errors, this.burst,
+                this.emitted, this.overflow, this.sent);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+// raw bytes of a device attached elsewhere and served via tcp, e.g. by ser2net
+public class SocketTransport implements Transport {
+
+    private final String host;
+    private final int port;
+
+    private SocketChannel channel;
+
+    public SocketTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public void open() throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(this.host, this.port));
+        this.channel.socket().setTcpNoDelay(true);
+    }
+
+    public ReadableByteChannel input() {
+        return this.channel;
+    }
+
+    public WritableByteChannel output() {
+        return this.channel;
+    }
+
+    // bytes are read by the reader itself
+    public boolean listen(PortReader reader) {
+        return false;
+    }
+
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    public String toString() {
+        return "tcp={host=" + this.host + ",port=" + this.port + "}";
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// traffic per pan and node (short or extended address), counted in primitive tables while capturing,
+// snapshots are copies taken under a short lock and formatted afterwards
+public class TrafficStats implements CaptureSink {
+
+    // kinds of keys, combined with pan for short addresses
+    private static final long PAN = 1L << 16;
+    private static final long SHORT = 2L << 16;
+    private static final long EXTENDED = 3L << 16;
+
+    // columns of a row
+    private static final int TX_FRAMES = 0;
+    private static final int TX_BYTES = 1;
+    private static final int RX_FRAMES = 2;
+    private static final int RX_BYTES = 3;
+    private static final int FCS = 4;      // bad frames, attributed to source if known already
+    private static final int FIRST = 5;    // [us]
+    private static final int LAST = 6;     // [us]
+    private static final int GAPS = 7;     // histogram of inter-arrival times as source, log2 of ms
+    private static final int BUCKETS = 16;
+    private static final int STRIDE = GAPS + BUCKETS;
+
+    private final MacFrame mac = new MacFrame();
+    private final LongTable table = new LongTable(STRIDE, 1024);
+
+    private long frames = 0;
+    private long bytes = 0;
+    private long fcs = 0;
+
+    public TrafficStats() {
+        super();
+    }
+
+    public synchronized void write(Capture frame) throws IOException {
+        MacFrame m = this.mac.wrap(frame);
+        long time = frame.time();
+        int len = frame.length();
+        this.frames++;
+        this.bytes += len;
+        long[] rows;
+        if (!frame.valid()) {
+            // addresses of a broken frame are not trusted to add nodes
+            this.fcs++;
+            if (m.hasSource()) {
+                int r = this.table.find(key(m.sourceMode(), m.sourcePan()), m.source());
+                if (r >= 0) this.table.rows()[r + FCS]++;
+            }
+            return;
+        }
+        int pan = m.hasSource() ? m.sourcePan() : m.destinationPan();
+        if (pan >= 0) {
+            int r = this.table.put(PAN | pan, 0);
+            this.count(this.table.rows(), r, TX_FRAMES, len, time);
+        }
+        if (m.hasSource()) {
+            int r = this.table.put(key(m.sourceMode(), m.sourcePan()), m.source());
+            rows = this.table.rows();
+            if (rows[r + LAST] > 0) {
+                long ms = Math.max(0, time - rows[r + LAST]) / 1000;
+                rows[r + GAPS + Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms))]++;
+            }
+            this.count(rows, r, TX_FRAMES, len, time);
+        }
+        // broadcasts are not counted as received by any node
+        if (m.hasDestination() && !(m.destinationMode() == MacFrame.MODE_SHORT && m.destination() == 0xffff)) {
+            int r = this.table.put(key(m.destinationMode(), m.destinationPan()), m.destination());
+            this.count(this.table.rows(), r, RX_FRAMES, len, time);
+        }
+    }
+
+    private void count(long[] rows, int r, int column, int len, long time) {
+        rows[r + column]++;
+        rows[r + column + 1] += len;
+        if (rows[r + FIRST] == 0) rows[r + FIRST] = time;
+        rows[r + LAST] = time;
+    }
+
+    // extended addresses are unique regardless of pan
+    private static long key(int mode, int pan) {
+        return mode == MacFrame.MODE_EXTENDED ? EXTENDED : SHORT | (pan & 0xffff);
+    }
+
+    public void flush() throws IOException {}
+
+    public void close() throws IOException {}
+
+    public synchronized void clear() {
+        this.table.clear();
+        this.frames = this.bytes = this.fcs = 0;
+    }
+
+    // writes one json line per pan and node, followed by totals
+    public void snapshot(Appendable out) throws IOException {
+        LongTable t;
+        long frames, bytes, fcs;
+        synchronized (this) {
+            t = this.table.copy();
+            frames = this.frames;
+            bytes = this.bytes;
+            fcs = this.fcs;
+        }
+        long[] rows = t.rows();
+        for (int i = 0; i < t.capacity(); i++) {
+            long hi = t.hi(i);
+            if (hi == 0) continue;
+            int r = i * STRIDE;
+            long kind = hi & ~0xffffL;
+            StringBuilder sb = new StringBuilder("{");
+            if (kind == PAN) {
+                sb.append("\"pan\":\"").append(hex(hi & 0xffff, 4)).append('"');
+            } else if (kind == SHORT) {
+                sb.append("\"node\":\"").append(hex(t.lo(i), 4)).append("\",\"pan\":\"").append(hex(hi & 0xffff, 4)).append('"');
+            } else {
+                sb.append("\"node\":\"").append(hex(t.lo(i), 16)).append('"');
+            }
+            sb.append(",\"tx\":{\"frames\":").append(rows[r + TX_FRAMES]).append(",\"bytes\":").append(rows[r + TX_BYTES])
+              .append("},\"rx\":{\"frames\":").append(rows[r + RX_FRAMES]).append(",\"bytes\":").append(rows[r + RX_BYTES])
+              .append("},\"fcs\":").append(rows[r + FCS])
+              .append(",\"first\":").append(rows[r + FIRST] / 1000)
+              .append(",\"last\":").append(rows[r + LAST] / 1000)
+              .append(",\"gaps\":[");
+            int n = BUCKETS;
+            while (n > 0 && rows[r + GAPS + n - 1] == 0) n--;
+            for (int k = 0; k < n; k++) {
+                if (k > 0) sb.append(',');
+                sb.append(rows[r + GAPS + k]);
+            }
+            out.append(sb.append("]}\n"));
+        }
+        out.append("{\"time\":" + System.currentTimeMillis() + ",\"frames\":" + frames + ",\"bytes\":" + bytes +
+                   ",\"fcs\":" + fcs + ",\"entries\":" + t.size() + "}\n");
+    }
+
+    // replaces given file by a snapshot, readers never see a partial one
+    public void snapshot(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.US_ASCII)) {
+            this.snapshot(w);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // write snapshots every given seconds to file, or to stderr if no file given
+    public void start(final long interval, final File file) {
+        Thread t = new Thread("stats") {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval * 1000);
+                        if (file != null) {
+                            TrafficStats.this.snapshot(file);
+                        } else {
+                            TrafficStats.this.snapshot(System.err);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static String hex(long value, int digits) {
+        String s = Long.toHexString(value);
+        while (s.length() < digits) s = "0" + s;
+        return s;
+    }
+
+    public synchronized String toString() {
+        return "{stats={entries=" + this.table.size() + ",frames=" + this.frames + ",bytes=" + this.bytes + ",fcs=" + this.fcs + "}}";
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018, Manfred Constapel
+ * This file is licensed under the terms of the MIT license.
+ */
+
+package de.m6c7l.sniffer.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+// bytes to and from a device, framing and commands are up to the device
+public interface Transport {
+
+    // open port or connection
+    public void open() throws IOException;
+
+    // received bytes, reads block until some bytes are available
+    public ReadableByteChannel input();
+
+    // bytes to be sent, null if nothing can be sent
+    public WritableByteChannel output();
+
+    // pass received bytes to reader as signalled by the port, false if the reader has to read on its own
+    public boolean listen(PortReader reader) throws IOException;
+
+    // close port or connection, reads blocked are released
+    public void close() throws IOException;
+
+    // transport given by name of a serial port or by tcp:host:port, file:path,path of output, pty:path,
+    // or a simulated device by sim:[DE|RZ][,rate[,min size[,max size[,share of fcs errors[,burst]]]]]
+    public static Transport of(String port) throws IOException {
+        if (port.startsWith("tcp:")) {
+            String s = port.substring(4);
+            if (s.startsWith("//")) s = s.substring(2);
+            int colon = s.lastIndexOf(':');
+            try {
+                return new SocketTransport(s.substring(0, colon), Integer.parseInt(s.substring(colon + 1)));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("illegal address: " + port);
+            }
+        }
+        if (port.startsWith("file:")) {
+            String[] s = port.substring(5).split(",", 2);
+            // commands are to be answered, raw dumps are processed by Replay instead
+            if (s.length < 2 || s[1].isEmpty()) throw new IOException("no path for commands: " + port);
+            return new FileTransport(new File(s[0]), new File(s[1]));
+        }
+        if (port.startsWith("pty:")) return new PtyTransport(new File(port.substring(4)));
+        if (port.startsWith("sim:")) {
+            String[] s = port.substring(4).split(",");
+            Simulator sim = new Simulator(s[0]);
+            try {
+                if (s.length > 1) sim.rate(Double.parseDouble(s[1]));
+                if (s.length > 2) sim.sizes(Integer.parseInt(s[2]), s.length > 3 ? Integer.parseInt(s[3]) : 127);
+                if (s.length > 4) sim.errors(Double.parseDouble(s[4]));
+                if (s.length > 5) sim.burst(Integer.parseInt(s[5]));
+            } catch (NumberFormatException e) {
+                throw new IOException("illegal simulation: " + port);
+            }
+            return sim;
+        }
+        return new SerialTransport(port);
+    }
+
+}